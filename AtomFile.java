@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+  CS410 – Binary atom files (.atb)
+
+  Author(s):
+  Reviewer:
+
+  A compact alternative to the text atoms for handing a program from the
+  parser to the code generator. All numbers are big-endian.
+
+    header   int magic "ATB1", int atom count, int symbol count, int offset of the strings
+    atoms    16 bytes each: byte opcode (Parser.OpCode ordinal), byte cmp (-1 = none),
+             2 reserved bytes, then int left, int right, int target. target is the result
+             for MOV/NEG/arithmetic and the destination label for JMP/LBL/TST. Operands
+             are symbol ids: -1 for none, -1 - n for temp n, else an index into the strings
+    strings  per symbol: unsigned short length, then its UTF-8 bytes
+
+  The writer streams records as the parser emits them and writes the strings and
+  the header last. The reader maps the file and builds atoms straight from the
+  records; the only Strings it makes are the symbol names, once each.
+*/
+
+public class AtomFile {
+
+    static final int MAGIC = 0x41544231; // "ATB1"
+    static final int HEADER = 16;
+    static final int RECORD = 16;
+    static final int MAX_ATOMS = (Integer.MAX_VALUE - HEADER) / RECORD; // strings offset is an int
+
+    private static final Parser.OpCode[] OPS = Parser.OpCode.values();
+
+    /**
+     * @return true if buf starts like an atom file (buf's position is not moved)
+     */
+    public static boolean isAtomFile(ByteBuffer buf) {
+        return buf.remaining() >= 4 && buf.getInt(buf.position()) == MAGIC;
+    }
+
+    /**
+     * Map an atom file and read it
+     */
+    public static void read(Path path, SymbolTable symbols, Parser.AtomSink into) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), symbols, into);
+        }
+    }
+
+    /**
+     * Intern the file's symbols into symbols, then emit its atoms in order (end() is
+     * left to the caller)
+     */
+    public static void read(ByteBuffer buf, SymbolTable symbols, Parser.AtomSink into) throws IOException {
+        try {
+            int base = buf.position();
+            if (buf.getInt(base) != MAGIC) throw new IOException("not an atom file");
+            int count = buf.getInt(base + 4);
+            int symbolCount = buf.getInt(base + 8);
+            int strings = buf.getInt(base + 12);
+            if (count < 0 || symbolCount < 0 || strings != HEADER + (long) count * RECORD) {
+                throw new IOException("corrupt atom file header");
+            }
+
+            // file symbol index -> id in this table
+            int[] ids = new int[symbolCount];
+            int p = base + strings;
+            for (int i = 0; i < symbolCount; i++) {
+                int len = Short.toUnsignedInt(buf.getShort(p));
+                ids[i] = symbols.intern(buf, p + 2, len);
+                p += 2 + len;
+            }
+
+            int r = base + HEADER;
+            for (int i = 0; i < count; i++, r += RECORD) {
+                int op = buf.get(r);
+                if (op < 0 || op >= OPS.length) throw new IOException("bad opcode in atom " + i);
+                int cmp = buf.get(r + 1);
+                int left = symbol(ids, buf.getInt(r + 4));
+                int right = symbol(ids, buf.getInt(r + 8));
+                int target = symbol(ids, buf.getInt(r + 12));
+                Parser.OpCode code = OPS[op];
+                Parser.Atom a = switch (code) {
+                    case JMP, LBL -> new Parser.Atom(symbols, code, NONE, NONE, NONE, null, target);
+                    case TST -> new Parser.Atom(symbols, code, left, right, NONE, cmp < 0 ? null : cmp, target);
+                    default -> new Parser.Atom(symbols, code, left, right, target);
+                };
+                into.emit(a);
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new IOException("truncated atom file");
+        }
+    }
+
+    private static final int NONE = SymbolTable.NONE;
+
+    private static int symbol(int[] ids, int fileId) throws IOException {
+        if (fileId < 0) return fileId; // NONE and temps are the same in every table
+        if (fileId >= ids.length) throw new IOException("bad symbol id " + fileId);
+        return ids[fileId];
+    }
+
+    /**
+     * An AtomSink that writes an atom file. Symbol ids are written as they are in
+     * symbols, so its strings section is simply the whole table.
+     */
+    public static class Writer implements Parser.AtomSink {
+        private final Path path;
+        private final FileChannel out;
+        private final SymbolTable symbols;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        private int count;
+
+        public Writer(Path path, SymbolTable symbols) throws IOException {
+            this.path = path;
+            this.out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.symbols = symbols;
+            buf.position(HEADER); // zeros for now, overwritten by end()
+        }
+
+        @Override
+        public void emit(Parser.Atom a) throws IOException {
+            if (count == MAX_ATOMS) throw new IOException("too many atoms for an atom file");
+            if (buf.remaining() < RECORD) drain();
+            boolean jump = a.op == Parser.OpCode.JMP || a.op == Parser.OpCode.LBL || a.op == Parser.OpCode.TST;
+            buf.put((byte) a.op.ordinal());
+            buf.put((byte) (a.cmp == null ? -1 : a.cmp));
+            buf.putShort((short) 0);
+            buf.putInt(a.left);
+            buf.putInt(a.right);
+            buf.putInt(jump ? a.dest : a.result);
+            count++;
+        }
+
+        @Override
+        public void end() throws IOException {
+            try {
+                for (int id = 0; id < symbols.size(); id++) {
+                    byte[] name = symbols.name(id).getBytes(StandardCharsets.UTF_8);
+                    if (name.length > 0xFFFF) throw new IOException("symbol too long for an atom file");
+                    if (buf.remaining() < 2 + name.length) drain();
+                    if (buf.remaining() < 2 + name.length) {
+                        ByteBuffer big = ByteBuffer.allocate(2 + name.length);
+                        big.putShort((short) name.length).put(name).flip();
+                        while (big.hasRemaining()) out.write(big);
+                    } else {
+                        buf.putShort((short) name.length).put(name);
+                    }
+                }
+                drain();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(count).putInt(symbols.size()).putInt(HEADER + count * RECORD).flip();
+                out.write(header, 0);
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Give up on the file, e.g. after a parse error: without end() it has no header or
+         * strings, so it is closed and deleted rather than left looking like an atom file
+         */
+        public void abort() throws IOException {
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) out.write(buf);
+            buf.clear();
+        }
+    }
+}
@@ -0,0 +1,440 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+  CS410 – Benchmarks
+  Throughput checks for the compiler phases on large generated programs.
+
+  Usage: java Bench scan|fsm|parallel|incremental|parse|comments|small|include|atoms|print|pipeline|optimize [lines]
+
+*/
+
+public class Bench {
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws Exception {
+        String what = args.length > 0 ? args[0] : "scan";
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        byte[] src = generateProgram(lines, 42);
+        System.out.printf("input: %d lines, %.1f MB%n", lines, src.length / 1e6);
+
+        switch (what) {
+            case "scan" -> benchScan(src);
+            case "fsm" -> benchFsm(src);
+            case "parallel" -> benchParallel(src);
+            case "incremental" -> benchIncremental(src);
+            case "parse" -> benchParse(src);
+            case "comments" -> benchComments(lines);
+            case "small" -> benchSmall();
+            case "include" -> benchInclude(src);
+            case "atoms" -> benchAtoms(src);
+            case "print" -> benchPrint(src);
+            case "pipeline" -> benchPipeline(src);
+            case "optimize" -> benchOptimize(src);
+            default -> System.err.println("unknown benchmark: " + what);
+        }
+    }
+
+    // Scanner throughput over the buffer path and the Reader fallback, after character
+    // classification before (comparison chain) and after (ASCII class table) on the same input
+    private static void benchScan(byte[] src) throws IOException {
+        String text = new String(src, StandardCharsets.UTF_8);
+        long chars = text.length();
+
+        report("classify (chain)", chars, () -> {
+            long sum = 0;
+            for (int i = 0; i < text.length(); i++) sum += chainClassify(text.charAt(i));
+            return sum;
+        });
+        report("classify (table)", chars, () -> {
+            long sum = 0;
+            for (int i = 0; i < text.length(); i++) sum += Scanner.ScannerEngine.classify(text.charAt(i));
+            return sum;
+        });
+
+        report("scan (buffer)", chars, () -> {
+            Scanner.ScannerEngine eng = new Scanner.ScannerEngine(src);
+            return eng.scanAll().size();
+        });
+        report("scan (token buffer)", chars, () -> {
+            Scanner.ScannerEngine eng = new Scanner.ScannerEngine(src);
+            return eng.scanAllBuffered().size();
+        });
+        report("scan (reader)", chars, () -> {
+            Reader r = new InputStreamReader(new ByteArrayInputStream(src), StandardCharsets.UTF_8);
+            return new Scanner.ScannerEngine(r).scanAll().size();
+        });
+    }
+
+    // ScannerEngine.classify() as it was before the ASCII class table, kept as the baseline
+    private static int chainClassify(int c) {
+        if (c == -1) return Scanner.ScannerEngine.CC_EOF;
+        if (c == '\n' || c == '\r' || c == '\t' || c == ' ') return Scanner.ScannerEngine.CC_WS;
+        if (c == '_') return Scanner.ScannerEngine.CC_UNDERSCORE;
+        if (Character.isLetter(c)) return Scanner.ScannerEngine.CC_LETTER;
+        if (Character.isDigit(c)) return Scanner.ScannerEngine.CC_DIGIT;
+        if (c == '.') return Scanner.ScannerEngine.CC_DOT;
+        if (c == '=' || c == '!' || c == '<' || c == '>') return Scanner.ScannerEngine.CC_EQ_BANG_LT_GT;
+        if (c == '+' || c == '-' || c == '*' || c == '/') return Scanner.ScannerEngine.CC_PLUS_MINUS_STAR_SLASH;
+        if (c == '(') return Scanner.ScannerEngine.CC_LPAREN;
+        if (c == ')') return Scanner.ScannerEngine.CC_RPAREN;
+        if (c == ';') return Scanner.ScannerEngine.CC_SEMI;
+        if (c == '{') return Scanner.ScannerEngine.CC_LBRACE;
+        if (c == '}') return Scanner.ScannerEngine.CC_RBRACE;
+        if (c == ',') return Scanner.ScannerEngine.CC_COMMA;
+        if (c == '#') return Scanner.ScannerEngine.CC_HASH;
+        if (c == '\'') return Scanner.ScannerEngine.CC_SQUOTE;
+        return Scanner.ScannerEngine.CC_OTHER;
+    }
+
+    // ScannerEngine against the table-driven FSMScanner, both into a TokenBuffer
+    private static void benchFsm(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+
+        Scanner.TokenBuffer a = new Scanner.ScannerEngine(src).scanAllBuffered();
+        Scanner.TokenBuffer b = new FSMScanner(src).scanAllBuffered();
+        System.out.println("token streams " + (sameTokens(a, b) ? "match" : "DIFFER") + " (" + a.size() + " tokens)");
+
+        report("ScannerEngine", chars, () -> new Scanner.ScannerEngine(src).scanAllBuffered().size());
+        report("FSMScanner", chars, () -> new FSMScanner(src).scanAllBuffered().size());
+    }
+
+    // Sequential scan against Scanner.ParallelScan on the common pool
+    private static void benchParallel(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        ByteBuffer buf = ByteBuffer.wrap(src);
+
+        Scanner.TokenBuffer a = new Scanner.ScannerEngine(buf).scanAllBuffered();
+        Scanner.TokenBuffer b = Scanner.ParallelScan.scan(buf);
+        System.out.println("token streams " + (sameTokens(a, b) ? "match" : "DIFFER") + " (" + a.size() + " tokens, "
+                + ForkJoinPool.commonPool().getParallelism() + " workers)");
+
+        report("sequential", chars, () -> new Scanner.ScannerEngine(buf).scanAllBuffered().size());
+        report("parallel", chars, () -> Scanner.ParallelScan.scan(buf).size());
+    }
+
+    // One-char edit in the middle of the file: full rescan against Scanner.IncrementalScan
+    private static void benchIncremental(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        Scanner.IncrementalScan doc = new Scanner.IncrementalScan(new Scanner.ScannerEngine(src).scanAllBuffered());
+        int mid = src.length / 2;
+        while (src[mid] != ' ') mid++;
+        int offset = mid;
+
+        doc.edit(offset, 0, "x");
+        Scanner.TokenBuffer inc = doc.tokens();
+        Scanner.TokenBuffer full = new Scanner.ScannerEngine(inc.source).scanAllBuffered();
+        System.out.println("token streams " + (sameTokens(inc, full) ? "match" : "DIFFER") + " (" + full.size() + " tokens)");
+
+        ByteBuffer edited = inc.source;
+        report("full rescan", chars, () -> new Scanner.ScannerEngine(edited).scanAllBuffered().size());
+        // typing next to the last edit: the gaps barely move
+        report("incremental edit", chars, () -> {
+            doc.edit(offset + 1, 0, "y");
+            doc.edit(offset + 1, 1, "");
+            return doc.size();
+        });
+    }
+
+    // Scanner on comment-heavy input: license headers and commented-out code around each block
+    private static void benchComments(int lines) throws IOException {
+        byte[] code = generateProgram(lines / 4, 7);
+        String body = new String(code, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(code.length * 4);
+        String[] stmts = body.split("\n");
+        for (int i = 0; i < stmts.length; i++) {
+            if (i % 20 == 0) {
+                sb.append("/*\n");
+                for (int k = 0; k < 30; k++) sb.append(" * Licensed under the terms of the course license, section ").append(k).append(".\n");
+                sb.append(" */\n");
+            }
+            if (i % 20 == 10) {
+                sb.append("/* disabled:\n");
+                for (int k = 0; k < 10; k++) sb.append("    ").append(stmts[(i + k) % stmts.length]).append('\n');
+                sb.append("*/\n");
+            }
+            if (i % 2 == 0) sb.append("    // ").append(stmts[i]).append('\n');
+            sb.append(stmts[i]).append('\n');
+        }
+        byte[] src = sb.toString().getBytes(StandardCharsets.UTF_8);
+        long chars = sb.length();
+        System.out.printf("comment-heavy input: %.1f MB%n", src.length / 1e6);
+
+        report("scan (buffer)", chars, () -> new Scanner.ScannerEngine(src).scanAllBuffered().size());
+    }
+
+    // Thousands of tiny programs: a fresh engine per file against one pooled engine that is reset
+    private static void benchSmall() throws IOException {
+        String[] files = new String[10_000];
+        for (int i = 0; i < files.length; i++) files[i] = new String(generateProgram(8, i), StandardCharsets.UTF_8);
+        long chars = 0;
+        for (String f : files) chars += f.length();
+
+        report("new engine per file", chars, () -> {
+            long n = 0;
+            for (String f : files) n += new Scanner.ScannerEngine(new StringReader(f)).scanAll().size();
+            return n;
+        });
+        Scanner.ScannerEngine pooled = new Scanner.ScannerEngine("");
+        report("pooled engine", chars, () -> {
+            long n = 0;
+            for (String f : files) n += pooled.reset(f).scanAll().size();
+            return n;
+        });
+    }
+
+    // Scan + parse to atoms, with identifiers interned into one SymbolTable
+    private static void benchParse(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        Scanner.TokenBuffer toks = new Scanner.ScannerEngine(src).scanAllBuffered();
+        Parser.TokenBufferSource ts = new Parser.TokenBufferSource(toks);
+        Parser.RDParser parser = new Parser.RDParser(ts);
+        System.out.println(parser.parseProgram().size() + " atoms, "
+                + ts.symbols().size() + " symbols, " + parser.tempCount() + " temps");
+
+        report("parse", chars, () -> new Parser.RDParser(new Parser.TokenBufferSource(toks)).parseProgram().size());
+    }
+
+    // Included file tokenized by a fresh scan against reading its tokens back from the on-disk
+    // cache, then a program that includes it four times (tokenized once per compile)
+    private static void benchInclude(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        Path dir = Files.createTempDirectory("bench-include");
+        Path header = Files.write(dir.resolve("header.txt"), src);
+        Path main = Files.write(dir.resolve("main.txt"),
+                "#include \"header.txt\"\n".repeat(4).getBytes(StandardCharsets.UTF_8));
+        Path cacheDir = dir.resolve("cache");
+        Scanner.TokenCache cache = new Scanner.TokenCache(cacheDir);
+        try {
+            Scanner.TokenBuffer scanned = Scanner.ScannerEngine.forFile(header).scanAllBuffered();
+            cache.load(header);
+            Scanner.TokenBuffer cached = cache.load(header);
+            long entry;
+            try (var entries = Files.list(cacheDir)) {
+                entry = Files.size(entries.findFirst().orElseThrow());
+            }
+            System.out.printf("token streams %s (%d tokens, cache entry %.1f MB)%n",
+                    sameTokens(scanned, cached) ? "match" : "DIFFER", scanned.size(), entry / 1e6);
+
+            report("scan", chars, () -> Scanner.ScannerEngine.forFile(header).scanAllBuffered().size());
+            report("cached", chars, () -> cache.load(header).size());
+            report("parse, 4 includes", 4 * chars, () -> {
+                Parser.TokenSource ts = new Parser.IncludeSource(
+                        new Parser.TokenBufferSource(Scanner.ScannerEngine.forFile(main).scanAllBuffered()), main, cache);
+                return new Parser.RDParser(ts).parseProgram().size();
+            });
+            System.out.println("cache hits " + cache.hits + ", misses " + cache.misses);
+        } finally {
+            try (var files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+            }
+        }
+    }
+
+    // Loading a parsed program into the code generator from text atoms and from an .atb file
+    private static void benchAtoms(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        Path dir = Files.createTempDirectory("bench-atoms");
+        Path text = dir.resolve("atoms.txt");
+        Path atb = dir.resolve("atoms.atb");
+        try {
+            SymbolTable symbols = new SymbolTable();
+            Parser.TokenSource ts = new Parser.TokenBufferSource(new Scanner.ScannerEngine(src).scanAllBuffered(), symbols);
+            List<Parser.Atom> atoms = new Parser.RDParser(ts).parseProgram();
+            try (PrintStream out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(text), 1 << 16))) {
+                for (Parser.Atom a : atoms) out.println(a);
+            }
+            AtomFile.Writer w = new AtomFile.Writer(atb, symbols);
+            for (Parser.Atom a : atoms) w.emit(a);
+            w.end();
+            System.out.printf("%d atoms: text %.1f MB, atb %.1f MB%n",
+                    atoms.size(), Files.size(text) / 1e6, Files.size(atb) / 1e6);
+
+            report("load text", chars, () -> load(text));
+            report("load atb", chars, () -> load(atb));
+        } finally {
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(atb);
+            Files.delete(dir);
+        }
+    }
+
+    // Writing a parsed program's text atoms through String.format + PrintStream and through TextSink
+    private static void benchPrint(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        SymbolTable symbols = new SymbolTable();
+        Parser.TokenSource ts = new Parser.TokenBufferSource(new Scanner.ScannerEngine(src).scanAllBuffered(), symbols);
+        List<Parser.Atom> atoms = new Parser.RDParser(ts).parseProgram();
+        Path out = Files.createTempFile("bench-print", ".txt");
+        try {
+            report("PrintSink", chars, () -> {
+                try (PrintStream ps = new PrintStream(new BufferedOutputStream(Files.newOutputStream(out), 1 << 16), false)) {
+                    print(new Parser.PrintSink(ps), atoms);
+                }
+                return atoms.size();
+            });
+            byte[] printed = Files.readAllBytes(out);
+            report("TextSink", chars, () -> {
+                try (FileChannel ch = FileChannel.open(out, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    print(new Parser.TextSink(ch, symbols), atoms);
+                }
+                return atoms.size();
+            });
+            System.out.printf("%d atoms, %.1f MB, output %s%n", atoms.size(), printed.length / 1e6,
+                    Arrays.equals(printed, Files.readAllBytes(out)) ? "identical" : "DIFFERS");
+        } finally {
+            Files.delete(out);
+        }
+    }
+
+    // Whole compile to machine code: scanner, parser and code generator one after another
+    // against the Pipeline's threads (which run them in turn anyway on a single processor)
+    private static void benchPipeline(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        Path file = Files.write(Files.createTempFile("bench-pipeline", ".txt"), src);
+        try {
+            System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+            report("sequential", chars, () -> {
+                SymbolTable symbols = new SymbolTable();
+                CodeGenerator gen = new CodeGenerator(symbols, Writer.nullWriter());
+                new Parser.RDParser(new Parser.TokenBufferSource(Scanner.ScannerEngine.forFile(file), symbols))
+                        .parseProgram(gen);
+                return gen.atomCount();
+            });
+            report("pipelined", chars, () -> {
+                SymbolTable symbols = new SymbolTable();
+                CodeGenerator gen = new CodeGenerator(symbols, Writer.nullWriter());
+                Pipeline.compile(file, symbols, false, false, false, gen);
+                return gen.atomCount();
+            });
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // Code size and compile time with and without the Optimizer between parser and code generator
+    private static void benchOptimize(byte[] src) throws IOException {
+        long chars = new String(src, StandardCharsets.UTF_8).length();
+        for (boolean optimize : new boolean[] { false, true }) {
+            CodeGenerator gen = compile(src, optimize);
+            System.out.printf("%-10s %,d atoms, %,d instructions%n", optimize ? "optimized" : "plain",
+                    gen.atomCount(), gen.instructionCount());
+        }
+
+        report("plain", chars, () -> compile(src, false).instructionCount());
+        report("optimized", chars, () -> compile(src, true).instructionCount());
+    }
+
+    private static CodeGenerator compile(byte[] src, boolean optimize) throws IOException {
+        SymbolTable symbols = new SymbolTable();
+        CodeGenerator gen = new CodeGenerator(symbols, Writer.nullWriter());
+        new Parser.RDParser(new Parser.TokenBufferSource(new Scanner.ScannerEngine(src), symbols))
+                .parseProgram(optimize ? new Optimizer(symbols, gen) : gen);
+        return gen;
+    }
+
+    private static void print(Parser.AtomSink sink, List<Parser.Atom> atoms) throws IOException {
+        for (Parser.Atom a : atoms) sink.emit(a);
+        sink.end();
+    }
+
+    private static long load(Path atoms) throws IOException {
+        CodeGenerator gen = new CodeGenerator(new SymbolTable(), Writer.nullWriter());
+        gen.readInput(atoms.toString());
+        return gen.atomCount();
+    }
+
+    static boolean sameTokens(Scanner.TokenBuffer a, Scanner.TokenBuffer b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.type(i) != b.type(i) || a.keyword(i) != b.keyword(i) || a.start(i) != b.start(i)
+                    || a.length(i) != b.length(i)) return false;
+        }
+        return true;
+    }
+
+    interface Task { long run() throws IOException; }
+
+    // Best-of-RUNS timing after WARMUP untimed runs; prints chars/sec
+    static void report(String name, long chars, Task task) throws IOException {
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) sink += task.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long t0 = System.nanoTime();
+            sink += task.run();
+            best = Math.min(best, System.nanoTime() - t0);
+        }
+        System.out.printf("%-24s %8.1f ms  %8.1f Mchars/s  (%d)%n",
+                name, best / 1e6, chars * 1e3 / best, sink);
+    }
+
+    // Random straight-line program: assignments, labels, conditional and plain gotos, comments
+    static byte[] generateProgram(int lines, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(lines * 32);
+        sb.append("/*\n * Generated benchmark input\n */\n");
+        int labels = 0;
+        for (int i = 0; i < lines; i++) {
+            double r = rnd.nextDouble();
+            if (r < 0.05) {
+                sb.append("label L").append(++labels).append(";\n");
+            } else if (r < 0.10 && labels > 0) {
+                sb.append("if (");
+                expr(sb, rnd, 0);
+                sb.append(' ').append(RELOPS[rnd.nextInt(RELOPS.length)]).append(' ');
+                expr(sb, rnd, 0);
+                sb.append(") goto L").append(1 + rnd.nextInt(labels)).append(";\n");
+            } else if (r < 0.12 && labels > 0) {
+                sb.append("goto L").append(1 + rnd.nextInt(labels)).append("; // jump\n");
+            } else if (r < 0.14) {
+                sb.append("// comment line ").append(i).append('\n');
+            } else if (r < 0.15) {
+                sb.append("/* block\n   comment ").append(i).append(" */\n");
+            } else {
+                sb.append(var(rnd)).append(" = ");
+                expr(sb, rnd, 0);
+                sb.append(";\n");
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final String[] RELOPS = { "==", "!=", "<", ">", "<=", ">=" };
+
+    private static String var(Random rnd) {
+        int k = rnd.nextInt(210);
+        return k < 10 ? new String[] { "a", "b", "c", "x", "y", "z", "count", "total", "idx_1", "_tmp" }[k] : "v" + (k - 10);
+    }
+
+    private static void expr(StringBuilder sb, Random rnd, int depth) {
+        double r = rnd.nextDouble();
+        if (depth > 3 || r < 0.3) {
+            double k = rnd.nextDouble();
+            if (k < 0.5) sb.append(var(rnd));
+            else if (k < 0.8) sb.append(rnd.nextInt(1000));
+            else if (k < 0.9) sb.append('\'').append("abcXYZ09".charAt(rnd.nextInt(8))).append('\'');
+            else sb.append(rnd.nextInt(100)).append('.').append(rnd.nextInt(100));
+        } else if (r < 0.4) {
+            sb.append('-');
+            expr(sb, rnd, depth + 1);
+        } else if (r < 0.55) {
+            sb.append('(');
+            expr(sb, rnd, depth + 1);
+            sb.append(')');
+        } else {
+            expr(sb, rnd, depth + 1);
+            sb.append(' ').append("+-*/".charAt(rnd.nextInt(4))).append(' ');
+            expr(sb, rnd, depth + 1);
+        }
+    }
+}
@@ -1,23 +1,33 @@
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 /*
   CS410 – Phase 3: Code Generator
   Authors: Aidan Lett, Kumail Abbas
   Reviewer: Julia
 
+  Takes Parser.Atom objects, either read back from an atom file, binary (.atb,
+  see AtomFile) or text (main), or straight from the parser as an AtomSink (see
+  Compiler and Pipeline). Each atom is translated as it arrives: a label's
+  address is simply the instruction count when it shows up, so jumps to labels
+  already seen are resolved at once, and jumps to labels defined later are
+  patched when the label arrives. The binary is written once the last atom is in.
 */
-public class CodeGenerator {
+public class CodeGenerator implements Parser.AtomSink {
 
     // Opcodes
     private static final int OP_CLR = 0;
@@ -34,33 +44,36 @@ public class CodeGenerator {
     // Comparison codes
     private static final int CMP_ALWAYS = 0;
 
-    // Parsed atom model (mirrors Parser.Atom toString layout)
-    private static class Atom {
-        final String op;
-        final String left;
-        final String right;
-        final String result;
-        final Integer cmp;
-        final String dest;
-
-        Atom(String op, String left, String right, String result, Integer cmp, String dest) {
-            this.op = op;
-            this.left = left;
-            this.right = right;
-            this.result = result;
-            this.cmp = cmp;
-            this.dest = dest;
-        }
-    }
+    // Largest value of the 20-bit address field; a literal operand is encoded there as is
+    static final int MAX_ADDRESS = 0xFFFFF;
 
-    // Symbol bookkeeping
-private final Map<String, Integer> memoryMap = new HashMap<>();
-private final Map<String, Integer> regMap = new HashMap<>();
+    // Instructions generated so far, and jumps waiting for a label that is not defined yet:
+    // the index of the JMP instruction, chained per label through pendingNext (-1 ends a chain)
+    private int[] code = new int[1024];
+    private int codeSize;
+    private int[] pendingAt = new int[16];
+    private int[] pendingNext = new int[16];
+    private int pendingCount;
+    private int[] pendingHead = new int[0];
+    private int atomCount;
+    private final Writer out;
+
+    // Symbol bookkeeping: memory slot / register per symbol, -1 until assigned (see slot())
+private final SymbolTable symbols;
+private int[] memoryMap = new int[0];
+private int[] regMap = new int[0];
 private int nextMem = 0;
 private int nextReg = 0;
 
 // Use Phase 3B label table for instruction addresses
-private final LabelTable labelTable = new LabelTable();
+private final LabelTable labelTable;
+
+    // symbols: the table the atoms' operand ids belong to; out: where the binary goes
+    public CodeGenerator(SymbolTable symbols, Writer out) {
+        this.symbols = symbols;
+        this.out = out;
+        this.labelTable = new LabelTable(symbols);
+    }
     // Public entrypoint
     public static void main(String[] args) throws Exception {
         String inputPath = null;
@@ -74,38 +87,101 @@ private final LabelTable labelTable = new LabelTable();
             }
         }
 
-        Reader r = (inputPath == null)
-                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
-                : new InputStreamReader(new FileInputStream(inputPath), StandardCharsets.UTF_8);
-
         Writer w = (outputPath == null)
                 ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
                 : new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8);
 
-        CodeGenerator gen = new CodeGenerator();
-        gen.run(r, w);
+        CodeGenerator gen = new CodeGenerator(new SymbolTable(), w);
+        gen.readInput(inputPath);
+        gen.end();
         w.flush();
     }
 
-    private void run(Reader reader, Writer out) throws Exception {
-        List<Atom> atoms = readAtoms(reader);
-        computeLabelAddresses(atoms);
-        List<Integer> instructions = emitInstructions(atoms);
+    // A binary atom file (memory-mapped, or read whole from stdin) or text atoms
+    void readInput(String inputPath) throws IOException {
+        if (inputPath != null) {
+            try (FileChannel ch = FileChannel.open(Paths.get(inputPath))) {
+                ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                if (AtomFile.isAtomFile(buf)) {
+                    AtomFile.read(buf, symbols, this);
+                    return;
+                }
+            }
+            readAtoms(textReader(new FileInputStream(inputPath)));
+        } else {
+            PushbackInputStream in = new PushbackInputStream(System.in, 4);
+            byte[] head = in.readNBytes(4);
+            in.unread(head);
+            if (AtomFile.isAtomFile(ByteBuffer.wrap(head))) {
+                AtomFile.read(ByteBuffer.wrap(in.readAllBytes()), symbols, this);
+            } else {
+                readAtoms(textReader(in));
+            }
+        }
+    }
+
+    // Text atoms are UTF-8 unless they start with a byte order mark; a shell redirect on
+    // Windows writes UTF-16 with one
+    private static Reader textReader(InputStream in) throws IOException {
+        PushbackInputStream p = new PushbackInputStream(in, 3);
+        byte[] b = p.readNBytes(3);
+        Charset cs = StandardCharsets.UTF_8;
+        int bom = 0;
+        if (b.length >= 2 && (b[0] & 0xFF) == 0xFF && (b[1] & 0xFF) == 0xFE) {
+            cs = StandardCharsets.UTF_16LE;
+            bom = 2;
+        } else if (b.length >= 2 && (b[0] & 0xFF) == 0xFE && (b[1] & 0xFF) == 0xFF) {
+            cs = StandardCharsets.UTF_16BE;
+            bom = 2;
+        } else if (b.length == 3 && (b[0] & 0xFF) == 0xEF && (b[1] & 0xFF) == 0xBB && (b[2] & 0xFF) == 0xBF) {
+            bom = 3;
+        }
+        p.unread(b, bom, b.length - bom);
+        return new InputStreamReader(p, cs);
+    }
+
+    @Override
+    public void emit(Parser.Atom a) {
+        generate(a);
+        atomCount++;
+    }
+
+    int atomCount() {
+        return atomCount;
+    }
 
-        for (Integer inst : instructions) {
-            out.write(toBinary32(inst));
-            out.write(System.lineSeparator());
+    // Instructions so far, the closing HLT included once end() has run
+    int instructionCount() {
+        return codeSize;
+    }
+
+    // Jumps to labels that never appeared keep address 0
+    @Override
+    public void end() throws IOException {
+        // finish program with HLT to be safe
+        add(encodeAbsolute(OP_HLT, CMP_ALWAYS, 0, 0));
+
+        // one reused line: 32 binary digits, then the line separator
+        String nl = System.lineSeparator();
+        char[] line = new char[32 + nl.length()];
+        nl.getChars(0, nl.length(), line, 32);
+        for (int i = 0; i < codeSize; i++) {
+            toBinary32(code[i], line);
+            out.write(line);
         }
     }
 
-    private List<Atom> readAtoms(Reader reader) throws Exception {
-        List<Atom> atoms = new ArrayList<>();
+    // Text atoms, as Parser prints them, into emit()
+    private void readAtoms(Reader reader) throws IOException {
         try (BufferedReader br = new BufferedReader(reader)) {
             String line;
             while ((line = br.readLine()) != null) {
                 line = line.trim();
                 if (line.isEmpty()) continue;
-                if (!line.startsWith("(") || !line.endsWith(")")) continue; // ignore malformed
+                if (!line.startsWith("(") || !line.endsWith(")")) {
+                    System.err.println("CodeGenerator: skipping malformed atom: " + line);
+                    continue;
+                }
 
                 String inner = line.substring(1, line.length() - 1);
                 String[] parts = inner.split("\\s*,\\s*");
@@ -120,33 +196,33 @@ private final LabelTable labelTable = new LabelTable();
                     case "MOV":
                     case "NEG": {
                         // (OP, left, right, result)
-                        String left = parts.length > 1 ? emptyToNull(parts[1]) : null;
-                        String right = parts.length > 2 ? emptyToNull(parts[2]) : null;
-                        String result = parts.length > 3 ? emptyToNull(parts[3]) : null;
-                        atoms.add(new Atom(op, left, right, result, null, null));
+                        int left = parts.length > 1 ? symbol(parts[1]) : NONE;
+                        int right = parts.length > 2 ? symbol(parts[2]) : NONE;
+                        int result = parts.length > 3 ? symbol(parts[3]) : NONE;
+                        emit(new Parser.Atom(symbols, Parser.OpCode.valueOf(op), left, right, result));
                         break;
                     }
                     case "JMP": {
                         // (JMP, , , , , dest)
-                        String dest = parts.length > 5 ? emptyToNull(parts[5]) : (parts.length > 1 ? emptyToNull(parts[1]) : null);
-                        atoms.add(new Atom(op, null, null, null, null, dest));
+                        int dest = parts.length > 5 ? symbol(parts[5]) : (parts.length > 1 ? symbol(parts[1]) : NONE);
+                        emit(new Parser.Atom(symbols, Parser.OpCode.JMP, NONE, NONE, NONE, null, dest));
                         break;
                     }
                     case "LBL": {
-                        String dest = parts.length > 5 ? emptyToNull(parts[5]) : (parts.length > 1 ? emptyToNull(parts[1]) : null);
-                        atoms.add(new Atom(op, null, null, null, null, dest));
+                        int dest = parts.length > 5 ? symbol(parts[5]) : (parts.length > 1 ? symbol(parts[1]) : NONE);
+                        emit(new Parser.Atom(symbols, Parser.OpCode.LBL, NONE, NONE, NONE, null, dest));
                         break;
                     }
                     case "TST": {
                         // (TST, left, right, , cmp, dest)
-                        String left = parts.length > 1 ? emptyToNull(parts[1]) : null;
-                        String right = parts.length > 2 ? emptyToNull(parts[2]) : null;
+                        int left = parts.length > 1 ? symbol(parts[1]) : NONE;
+                        int right = parts.length > 2 ? symbol(parts[2]) : NONE;
                         Integer cmp = null;
                         if (parts.length > 4 && !parts[4].isEmpty()) {
                             cmp = Integer.parseInt(parts[4]);
                         }
-                        String dest = parts.length > 5 ? emptyToNull(parts[5]) : null;
-                        atoms.add(new Atom(op, left, right, null, cmp, dest));
+                        int dest = parts.length > 5 ? symbol(parts[5]) : NONE;
+                        emit(new Parser.Atom(symbols, Parser.OpCode.TST, left, right, NONE, cmp, dest));
                         break;
                     }
                     default:
@@ -155,156 +231,157 @@ private final LabelTable labelTable = new LabelTable();
                 }
             }
         }
-        return atoms;
     }
 
-    private static String emptyToNull(String s) {
-        return (s == null || s.isEmpty()) ? null : s;
-    }
+    private static final int NONE = SymbolTable.NONE;
 
-    // First pass (Part C): use LabelTable to compute instruction address per label
-private void computeLabelAddresses(List<Atom> atoms) {
-    // Start fresh for each program
-    labelTable.reset();
+    // Intern an operand; empty fields have no symbol
+    private int symbol(String s) {
+        return (s == null || s.isEmpty()) ? NONE : symbols.intern(s);
+    }
 
-    for (Atom a : atoms) {
-        if ("LBL".equals(a.op)) {
-            // Record label at current instruction address
-            if (a.dest != null && !a.dest.isEmpty()) {
-                labelTable.addLabel(a.dest, labelTable.getCurrentAddress());
+    // Translate one atom, appending its instructions
+    private void generate(Parser.Atom a) {
+        switch (a.op) {
+            case MOV: {
+                int r = regFor(a.result);
+                int addrSrc = addressFor(a.left);
+                add(encodeAbsolute(OP_LOD, CMP_ALWAYS, r, addrSrc));
+                int addrDst = addressFor(a.result);
+                add(encodeAbsolute(OP_STO, CMP_ALWAYS, r, addrDst));
+                break;
             }
-            // Do NOT advance address for a pure label
-        } else {
-            // This atom will emit instructionCost(a) machine instructions
-            int cost = instructionCost(a);
-            if (cost > 0) {
-                labelTable.incrementAddress(cost);
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV: {
+                int r = regFor(a.result);
+                int addrL = addressFor(a.left);
+                int addrR = addressFor(a.right);
+                add(encodeAbsolute(OP_LOD, CMP_ALWAYS, r, addrL));
+                int op = opCodeFor(a.op);
+                add(encodeAbsolute(op, CMP_ALWAYS, r, addrR));
+                int addrDst = addressFor(a.result);
+                add(encodeAbsolute(OP_STO, CMP_ALWAYS, r, addrDst));
+                break;
+            }
+            case NEG: {
+                int r = regFor(a.result);
+                int addrSrc = addressFor(a.left);
+                add(encodeAbsolute(OP_CLR, CMP_ALWAYS, r, 0));
+                add(encodeAbsolute(OP_SUB, CMP_ALWAYS, r, addrSrc)); // 0 - src
+                int addrDst = addressFor(a.result);
+                add(encodeAbsolute(OP_STO, CMP_ALWAYS, r, addrDst));
+                break;
             }
+            case TST: {
+                int r = regFor(a.left);
+                int addrL = addressFor(a.left);
+                int addrR = addressFor(a.right);
+                add(encodeAbsolute(OP_LOD, CMP_ALWAYS, r, addrL));
+                int cmpCode = a.cmp == null ? CMP_ALWAYS : a.cmp;
+                add(encodeAbsolute(OP_CMP, cmpCode, r, addrR));
+                jumpTo(a.dest);
+                break;
+            }
+            case JMP: {
+                add(encodeAbsolute(OP_CMP, CMP_ALWAYS, 0, 0)); // ensure flag true
+                jumpTo(a.dest);
+                break;
+            }
+            case LBL:
+                // no code emitted; the label is the address of the next instruction
+                if (a.dest != NONE) defineLabel(a.dest);
+                break;
+            default:
+                // ignore unknown ops
+                break;
         }
     }
 
-    labelTable.markFirstPassComplete();
-}
-
-    private int instructionCost(Atom a) {
-        switch (a.op) {
-            case "MOV": return 2;
-            case "ADD":
-            case "SUB":
-            case "MUL":
-            case "DIV": return 3;
-            case "NEG": return 3;
-            case "TST": return 3;
-            case "JMP": return 2;
-            default: return 0;
-        }
+    private void add(int instruction) {
+        if (codeSize == code.length) code = Arrays.copyOf(code, codeSize * 2);
+        code[codeSize++] = instruction;
     }
 
-    // Second pass: emit instructions as 32-bit ints
-    private List<Integer> emitInstructions(List<Atom> atoms) {
-        List<Integer> out = new ArrayList<>();
-        for (Atom a : atoms) {
-            switch (a.op) {
-                case "MOV": {
-                    int r = regFor(symOrResult(a.result));
-                    int addrSrc = addressFor(symOrResult(a.left));
-                    out.add(encodeAbsolute(OP_LOD, CMP_ALWAYS, r, addrSrc));
-                    int addrDst = addressFor(symOrResult(a.result));
-                    out.add(encodeAbsolute(OP_STO, CMP_ALWAYS, r, addrDst));
-                    break;
-                }
-                case "ADD":
-                case "SUB":
-                case "MUL":
-                case "DIV": {
-                    int r = regFor(symOrResult(a.result));
-                    int addrL = addressFor(symOrResult(a.left));
-                    int addrR = addressFor(symOrResult(a.right));
-                    out.add(encodeAbsolute(OP_LOD, CMP_ALWAYS, r, addrL));
-                    int op = opCodeFor(a.op);
-                    out.add(encodeAbsolute(op, CMP_ALWAYS, r, addrR));
-                    int addrDst = addressFor(symOrResult(a.result));
-                    out.add(encodeAbsolute(OP_STO, CMP_ALWAYS, r, addrDst));
-                    break;
-                }
-                case "NEG": {
-                    int r = regFor(symOrResult(a.result));
-                    int addrSrc = addressFor(symOrResult(a.left));
-                    out.add(encodeAbsolute(OP_CLR, CMP_ALWAYS, r, 0));
-                    out.add(encodeAbsolute(OP_SUB, CMP_ALWAYS, r, addrSrc)); // 0 - src
-                    int addrDst = addressFor(symOrResult(a.result));
-                    out.add(encodeAbsolute(OP_STO, CMP_ALWAYS, r, addrDst));
-                    break;
-                }
-                case "TST": {
-                    int r = regFor(symOrResult(a.left));
-                    int addrL = addressFor(symOrResult(a.left));
-                    int addrR = addressFor(symOrResult(a.right));
-                    out.add(encodeAbsolute(OP_LOD, CMP_ALWAYS, r, addrL));
-                    int cmpCode = a.cmp == null ? CMP_ALWAYS : a.cmp;
-                    out.add(encodeAbsolute(OP_CMP, cmpCode, r, addrR));
-                    int destAddr = resolveLabel(a.dest);
-                    out.add(encodeAbsolute(OP_JMP, CMP_ALWAYS, 0, destAddr));
-                    break;
-                }
-                case "JMP": {
-                    int destAddr = resolveLabel(a.dest);
-                    out.add(encodeAbsolute(OP_CMP, CMP_ALWAYS, 0, 0)); // ensure flag true
-                    out.add(encodeAbsolute(OP_JMP, CMP_ALWAYS, 0, destAddr));
-                    break;
-                }
-                case "LBL":
-                    // no code emitted
-                    break;
-                default:
-                    // ignore unknown ops
-                    break;
+    // A JMP to label, or to 0 for now when the label has not been defined yet
+    private void jumpTo(int label) {
+        if (label != NONE && !labelTable.hasLabel(label)) {
+            if (label >= pendingHead.length) pendingHead = grow(pendingHead, label);
+            if (pendingCount == pendingAt.length) {
+                pendingAt = Arrays.copyOf(pendingAt, pendingCount * 2);
+                pendingNext = Arrays.copyOf(pendingNext, pendingCount * 2);
             }
+            pendingAt[pendingCount] = codeSize;
+            pendingNext[pendingCount] = pendingHead[label];
+            pendingHead[label] = pendingCount++;
         }
-        // finish program with HLT to be safe
-        out.add(encodeAbsolute(OP_HLT, CMP_ALWAYS, 0, 0));
-        return out;
+        add(encodeAbsolute(OP_JMP, CMP_ALWAYS, 0, resolveLabel(label)));
     }
 
-    private String symOrResult(String s) {
-        return s == null ? "" : s;
+    // Record label at the current address and patch the jumps that were waiting for it
+    private void defineLabel(int label) {
+        labelTable.addLabel(label, codeSize);
+        if (label >= pendingHead.length) return;
+        for (int p = pendingHead[label]; p >= 0; p = pendingNext[p]) {
+            code[pendingAt[p]] = encodeAbsolute(OP_JMP, CMP_ALWAYS, 0, codeSize);
+        }
+        pendingHead[label] = -1;
     }
 
-    private int addressFor(String sym) {
-        if (sym == null || sym.isEmpty()) return 0;
-        if (isNumber(sym)) {
-            long v = Long.parseLong(sym.split("\\.")[0]);
+    private int addressFor(int sym) {
+        if (sym == NONE) return 0;
+        if (symbols.isNumber(sym)) {
+            long v = Long.parseLong(symbols.name(sym));
             return (int) v;
         }
-        return memoryMap.computeIfAbsent(sym, k -> nextMem++);
+        int s = slot(sym);
+        if (s >= memoryMap.length) memoryMap = grow(memoryMap, s);
+        if (memoryMap[s] < 0) memoryMap[s] = nextMem++;
+        return memoryMap[s];
     }
 
-    private int regFor(String sym) {
-        if (sym == null || sym.isEmpty()) return 0;
-        return regMap.computeIfAbsent(sym, k -> {
-            int r = nextReg;
+    private int regFor(int sym) {
+        if (sym == NONE) return 0;
+        int s = slot(sym);
+        if (s >= regMap.length) regMap = grow(regMap, s);
+        if (regMap[s] < 0) {
+            regMap[s] = nextReg;
             nextReg = Math.min(15, nextReg + 1);
-            return r;
-        });
+        }
+        return regMap[s];
+    }
+
+    // Index into the per-symbol maps: interned symbols at even slots, temp n (which has a
+    // computed negative id) at odd slot 2n+1
+    private static int slot(int sym) {
+        return sym >= 0 ? 2 * sym : 2 * SymbolTable.tempNumber(sym) + 1;
+    }
+
+    // Resize a per-symbol map to cover slot s and every interned symbol, new slots unassigned
+    private int[] grow(int[] map, int s) {
+        int old = map.length;
+        int[] bigger = Arrays.copyOf(map, Math.max(Math.max(s + 1, 2 * symbols.size()), old * 2));
+        Arrays.fill(bigger, old, bigger.length, -1);
+        return bigger;
     }
 
-    private int resolveLabel(String label) {
-        if (label == null || label.isEmpty()) return 0;
+    private int resolveLabel(int label) {
+        if (label == NONE) return 0;
     
-        Integer addr = labelTable.getAddress(label);
-        if (addr == null) {
-            // throw new IllegalArgumentException("Undefined label: " + label);
+        if (!labelTable.hasLabel(label)) {
+            // throw new IllegalArgumentException("Undefined label: " + symbols.name(label));
             return 0;
         }
-        return addr;
+        return labelTable.getAddress(label);
     }
 
-    private int opCodeFor(String op) {
+    private int opCodeFor(Parser.OpCode op) {
         switch (op) {
-            case "ADD": return OP_ADD;
-            case "SUB": return OP_SUB;
-            case "MUL": return OP_MUL;
-            case "DIV": return OP_DIV;
+            case ADD: return OP_ADD;
+            case SUB: return OP_SUB;
+            case MUL: return OP_MUL;
+            case DIV: return OP_DIV;
             default: return OP_ADD;
         }
     }
@@ -315,24 +392,13 @@ private void computeLabelAddresses(List<Atom> atoms) {
         value |= (opcode & 0xF);
         value |= ((cmp & 0x7) << 5); // bit4 stays 0 for absolute mode
         value |= ((reg & 0xF) << 8);
-        value |= ((addr & 0xFFFFF) << 12);
+        value |= ((addr & MAX_ADDRESS) << 12);
         return value;
     }
 
-    private boolean isNumber(String s) {
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (i == 0 && (c == '-' || c == '+')) continue;
-            if (!Character.isDigit(c)) return false;
-        }
-        return !s.isEmpty();
-    }
-
-    private String toBinary32(int value) {
-        StringBuilder sb = new StringBuilder(32);
-        for (int i = 31; i >= 0; i--) {
-            sb.append(((value >>> i) & 1) == 1 ? '1' : '0');
+    private static void toBinary32(int value, char[] into) {
+        for (int i = 0; i < 32; i++) {
+            into[i] = (char) ('0' + ((value >>> (31 - i)) & 1));
         }
-        return sb.toString();
     }
 }
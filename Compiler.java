@@ -0,0 +1,80 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+  CS410 – Compiler driver
+  Runs scanner, parser and code generator in one process. The parser's atoms go
+  straight into the code generator as objects over one shared SymbolTable, so they
+  are never formatted as text and split back apart. The text atoms can still be
+  written on the side with --atoms. With --pipeline the scanner and parser run
+  on threads of their own, overlapped with code generation (see Pipeline).
+  --optimize passes the atoms through the Optimizer first (--atoms then shows
+  the optimized ones).
+
+  Usage: java Compiler [--out=program.bin] [--atoms=atoms.txt] [--no-token-cache] [--tree-ir] [--pipeline] [--optimize] [program.txt]
+  (reads stdin when no program is given; the binary goes to stdout without --out)
+
+*/
+
+public class Compiler {
+
+    public static void main(String[] args) throws Exception {
+        Path file = null;
+        String outputPath = null;
+        String atomsPath = null;
+        boolean useCache = true;
+        boolean treeIR = false;
+        boolean pipeline = false;
+        boolean optimize = false;
+
+        for (String a : args) {
+            if (a.startsWith("--out=")) {
+                outputPath = a.substring("--out=".length());
+            } else if (a.startsWith("--atoms=")) {
+                atomsPath = a.substring("--atoms=".length());
+            } else if (a.equals("--no-token-cache")) {
+                useCache = false;
+            } else if (a.equals("--tree-ir")) {
+                treeIR = true;
+            } else if (a.equals("--pipeline")) {
+                pipeline = true;
+            } else if (a.equals("--optimize")) {
+                optimize = true;
+            } else {
+                file = Paths.get(a);
+            }
+        }
+
+        Parser.TokenSource ts = pipeline ? null : Parser.open(file, useCache);
+        SymbolTable symbols = pipeline ? new SymbolTable() : ts.symbols();
+
+        Writer w = new BufferedWriter((outputPath == null)
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8), 1 << 16);
+        FileChannel atoms = (atomsPath == null) ? null
+                : FileChannel.open(Paths.get(atomsPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+
+        Parser.TextSink text = (atoms == null) ? null : new Parser.TextSink(atoms, symbols);
+
+        Parser.AtomSink sink = new CodeGenerator(symbols, w);
+        if (text != null) sink = new Parser.TeeSink(text, sink);
+        try {
+            if (pipeline) {
+                Pipeline.compile(file, symbols, useCache, treeIR, optimize, sink);
+            } else {
+                new Parser.RDParser(ts, treeIR).parseProgram(optimize ? new Optimizer(symbols, sink) : sink);
+            }
+        } finally {
+            w.flush();
+            if (text != null) {
+                text.end(); // the atoms before a parse error are still written
+                atoms.close();
+            }
+        }
+    }
+}
@@ -1,9 +1,461 @@
-import java.io.*; 
-import java.nio.charset.StandardCharsets; 
-import java.util.*; 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
 
-public class FSMScanner { 
-    public static void main(String[] args) throws Exception { 
-        System.out.println("Scanner skelly runs"); 
+/*
+  CS410 – Phase 1: Table-driven Scanner
+
+  A fully table-driven version of Scanner.ScannerEngine. Every token rule (two-char
+  operators, char and string literals, the INT -> FLOAT dot rule, comments and whitespace) is an
+  edge in one DFA. The DFA is minimized when the class loads, its transition table is
+  row-displacement compressed, and each state has an action (skip, or the token kind
+  it accepts). The inner loop is maximal munch: follow transitions, remember the last
+  accepting state, and back up to it when stuck.
+
+  Produces the same token stream as Scanner.ScannerEngine.
+*/
+
+public class FSMScanner {
+
+    // Character classes (columns)
+    static final int C_LETTER = 0;
+    static final int C_DIGIT = 1;
+    static final int C_UNDERSCORE = 2;
+    static final int C_DOT = 3;
+    static final int C_WS = 4;     // space, tab
+    static final int C_CR = 5;
+    static final int C_NL = 6;
+    static final int C_EQ = 7;
+    static final int C_BANG = 8;
+    static final int C_LT = 9;
+    static final int C_GT = 10;
+    static final int C_PLUS = 11;
+    static final int C_MINUS = 12;
+    static final int C_STAR = 13;
+    static final int C_SLASH = 14;
+    static final int C_LPAREN = 15;
+    static final int C_RPAREN = 16;
+    static final int C_SEMI = 17;
+    static final int C_LBRACE = 18;
+    static final int C_RBRACE = 19;
+    static final int C_COMMA = 20;
+    static final int C_HASH = 21;
+    static final int C_SQUOTE = 22;
+    static final int C_DQUOTE = 23;
+    static final int C_OTHER = 24;
+    static final int CLASS_COUNT = 25;
+
+    // Actions: 0 = not accepting, 1 = accept and skip, A_TOKEN + ordinal = accept that token kind
+    static final int A_NONE = 0;
+    static final int A_SKIP = 1;
+    static final int A_TOKEN = 2;
+
+    static final int DEAD = -1;
+
+    private static final byte[] ASCII_CLASS = new byte[128];
+    private static final Scanner.TokenType[] TYPES = Scanner.TokenType.values();
+
+    // Compressed tables: next state of s on class c is NEXT[BASE[s] + c] if CHECK[BASE[s] + c] == s
+    private static final int[] BASE, NEXT, CHECK, ACTION;
+    private static final int START;
+    private static final String STATS;
+
+    static {
+        Arrays.fill(ASCII_CLASS, (byte) C_OTHER);
+        for (char c = 'a'; c <= 'z'; c++) ASCII_CLASS[c] = C_LETTER;
+        for (char c = 'A'; c <= 'Z'; c++) ASCII_CLASS[c] = C_LETTER;
+        for (char c = '0'; c <= '9'; c++) ASCII_CLASS[c] = C_DIGIT;
+        ASCII_CLASS['_'] = C_UNDERSCORE;
+        ASCII_CLASS['.'] = C_DOT;
+        ASCII_CLASS[' '] = ASCII_CLASS['\t'] = C_WS;
+        ASCII_CLASS['\r'] = C_CR;
+        ASCII_CLASS['\n'] = C_NL;
+        ASCII_CLASS['='] = C_EQ;
+        ASCII_CLASS['!'] = C_BANG;
+        ASCII_CLASS['<'] = C_LT;
+        ASCII_CLASS['>'] = C_GT;
+        ASCII_CLASS['+'] = C_PLUS;
+        ASCII_CLASS['-'] = C_MINUS;
+        ASCII_CLASS['*'] = C_STAR;
+        ASCII_CLASS['/'] = C_SLASH;
+        ASCII_CLASS['('] = C_LPAREN;
+        ASCII_CLASS[')'] = C_RPAREN;
+        ASCII_CLASS[';'] = C_SEMI;
+        ASCII_CLASS['{'] = C_LBRACE;
+        ASCII_CLASS['}'] = C_RBRACE;
+        ASCII_CLASS[','] = C_COMMA;
+        ASCII_CLASS['#'] = C_HASH;
+        ASCII_CLASS['\''] = C_SQUOTE;
+        ASCII_CLASS['"'] = C_DQUOTE;
+
+        Dfa dfa = buildDfa();
+        int before = dfa.size();
+        Dfa min = dfa.minimize();
+        int[][] compressed = min.compress();
+        BASE = compressed[0];
+        NEXT = compressed[1];
+        CHECK = compressed[2];
+        ACTION = min.actions();
+        START = min.start;
+        STATS = String.format("states: %d -> %d after minimization; table: %d -> %d entries after row displacement",
+                before, min.size(), min.size() * CLASS_COUNT, NEXT.length);
+    }
+
+    private static int tokenAction(Scanner.TokenType t) { return A_TOKEN + t.ordinal(); }
+
+    // The scanner's token rules, one state per distinct prefix
+    private static Dfa buildDfa() {
+        Dfa d = new Dfa();
+        int start = d.state(A_NONE);
+        d.start = start;
+
+        // whitespace, '#' (ignored) and comments are accepted and skipped
+        int ws = d.state(A_SKIP);
+        int[] blank = { C_WS, C_CR, C_NL, C_HASH };
+        d.edges(start, blank, ws);
+        d.edges(ws, blank, ws);
+
+        int slash = d.state(tokenAction(Scanner.TokenType.SLASH));
+        d.edge(start, C_SLASH, slash);
+
+        int lineComment = d.state(A_SKIP);     // "//..." (also ends at EOF)
+        int lineCommentEnd = d.state(A_SKIP);  // "//...\n"
+        d.edge(slash, C_SLASH, lineComment);
+        d.allExcept(lineComment, lineComment, C_NL);
+        d.edge(lineComment, C_NL, lineCommentEnd);
+
+        int block = d.state(A_SKIP);           // "/*..." (unterminated comments run to EOF)
+        int blockStar = d.state(A_SKIP);       // "/*...*"
+        int blockEnd = d.state(A_SKIP);        // "/*...*/"
+        d.edge(slash, C_STAR, block);
+        d.allExcept(block, block, C_STAR);
+        d.edge(block, C_STAR, blockStar);
+        d.allExcept(blockStar, block, C_STAR, C_SLASH);
+        d.edge(blockStar, C_STAR, blockStar);
+        d.edge(blockStar, C_SLASH, blockEnd);
+
+        // identifiers and keywords (keywords are told apart after accepting)
+        int id = d.state(tokenAction(Scanner.TokenType.IDENTIFIER));
+        int[] idStart = { C_LETTER, C_UNDERSCORE };
+        int[] idPart = { C_LETTER, C_DIGIT, C_UNDERSCORE };
+        d.edges(start, idStart, id);
+        d.edges(id, idPart, id);
+
+        // numbers: digits, and digits '.' digits+ ("12." backs up to the INT)
+        int num = d.state(tokenAction(Scanner.TokenType.INT_LITERAL));
+        int numDot = d.state(A_NONE);
+        int fraction = d.state(tokenAction(Scanner.TokenType.FLOAT_LITERAL));
+        d.edge(start, C_DIGIT, num);
+        d.edge(num, C_DIGIT, num);
+        d.edge(num, C_DOT, numDot);
+        d.edge(numDot, C_DIGIT, fraction);
+        d.edge(fraction, C_DIGIT, fraction);
+
+        // char literal 'x'; a broken one is an ERROR covering what was read
+        int quote = d.state(tokenAction(Scanner.TokenType.ERROR));
+        int quoteChar = d.state(tokenAction(Scanner.TokenType.ERROR));
+        int charLit = d.state(tokenAction(Scanner.TokenType.CHAR_LITERAL));
+        d.edge(start, C_SQUOTE, quote);
+        d.allExcept(quote, quoteChar, C_NL, C_CR, C_SQUOTE);
+        d.edge(quoteChar, C_SQUOTE, charLit);
+
+        // string literal "..." on one line; unterminated is an ERROR up to the line end
+        int dquote = d.state(tokenAction(Scanner.TokenType.ERROR));
+        int strBody = d.state(tokenAction(Scanner.TokenType.ERROR));
+        int strLit = d.state(tokenAction(Scanner.TokenType.STRING_LITERAL));
+        d.edge(start, C_DQUOTE, dquote);
+        d.allExcept(dquote, strBody, C_NL, C_CR, C_DQUOTE);
+        d.allExcept(strBody, strBody, C_NL, C_CR, C_DQUOTE);
+        d.edge(dquote, C_DQUOTE, strLit);
+        d.edge(strBody, C_DQUOTE, strLit);
+
+        // operators with an optional '='
+        twoChar(d, start, C_EQ, Scanner.TokenType.ASSIGN, Scanner.TokenType.EQ);
+        twoChar(d, start, C_LT, Scanner.TokenType.LT, Scanner.TokenType.LE);
+        twoChar(d, start, C_GT, Scanner.TokenType.GT, Scanner.TokenType.GE);
+        twoChar(d, start, C_BANG, Scanner.TokenType.NOT, Scanner.TokenType.NE);
+
+        // single-char tokens
+        single(d, start, C_PLUS, Scanner.TokenType.PLUS);
+        single(d, start, C_MINUS, Scanner.TokenType.MINUS);
+        single(d, start, C_STAR, Scanner.TokenType.STAR);
+        single(d, start, C_LPAREN, Scanner.TokenType.LPAREN);
+        single(d, start, C_RPAREN, Scanner.TokenType.RPAREN);
+        single(d, start, C_SEMI, Scanner.TokenType.SEMICOLON);
+        single(d, start, C_LBRACE, Scanner.TokenType.LBRACE);
+        single(d, start, C_RBRACE, Scanner.TokenType.RBRACE);
+        single(d, start, C_COMMA, Scanner.TokenType.COMMA);
+        single(d, start, C_DOT, Scanner.TokenType.ERROR);
+        single(d, start, C_OTHER, Scanner.TokenType.ERROR);
+        return d;
+    }
+
+    private static void single(Dfa d, int start, int cls, Scanner.TokenType type) {
+        d.edge(start, cls, d.state(tokenAction(type)));
+    }
+
+    private static void twoChar(Dfa d, int start, int cls, Scanner.TokenType one, Scanner.TokenType withEq) {
+        int s1 = d.state(tokenAction(one));
+        d.edge(start, cls, s1);
+        d.edge(s1, C_EQ, d.state(tokenAction(withEq)));
+    }
+
+    // DFA under construction: dense rows, DEAD for no transition
+    private static final class Dfa {
+        final List<int[]> rows = new ArrayList<>();
+        final List<Integer> action = new ArrayList<>();
+        int start;
+
+        int state(int act) {
+            int[] row = new int[CLASS_COUNT];
+            Arrays.fill(row, DEAD);
+            rows.add(row);
+            action.add(act);
+            return rows.size() - 1;
+        }
+
+        int size() { return rows.size(); }
+
+        void edge(int from, int cls, int to) { rows.get(from)[cls] = to; }
+
+        void edges(int from, int[] classes, int to) {
+            for (int c : classes) edge(from, c, to);
+        }
+
+        void allExcept(int from, int to, int... except) {
+            outer:
+            for (int c = 0; c < CLASS_COUNT; c++) {
+                for (int e : except) if (c == e) continue outer;
+                edge(from, c, to);
+            }
+        }
+
+        int[] actions() {
+            int[] a = new int[action.size()];
+            for (int i = 0; i < a.length; i++) a[i] = action.get(i);
+            return a;
+        }
+
+        // Moore partition refinement: start from blocks of equal action, split until every
+        // state in a block goes to the same blocks on every class
+        Dfa minimize() {
+            int n = size();
+            int[] block = new int[n];
+            Map<List<Integer>, Integer> ids = new HashMap<>();
+            for (int s = 0; s < n; s++) {
+                block[s] = ids.computeIfAbsent(List.of(action.get(s)), k -> ids.size());
+            }
+            int blocks = ids.size();
+            while (true) {
+                ids.clear();
+                int[] next = new int[n];
+                for (int s = 0; s < n; s++) {
+                    List<Integer> sig = new ArrayList<>(CLASS_COUNT + 1);
+                    sig.add(block[s]);
+                    for (int t : rows.get(s)) sig.add(t == DEAD ? DEAD : block[t]);
+                    next[s] = ids.computeIfAbsent(sig, k -> ids.size());
+                }
+                block = next;
+                if (ids.size() == blocks) break;
+                blocks = ids.size();
+            }
+
+            Dfa min = new Dfa();
+            for (int b = 0; b < blocks; b++) min.state(A_NONE);
+            for (int s = 0; s < n; s++) {
+                int b = block[s];
+                min.action.set(b, action.get(s));
+                int[] row = rows.get(s);
+                for (int c = 0; c < CLASS_COUNT; c++) {
+                    min.rows.get(b)[c] = row[c] == DEAD ? DEAD : block[row[c]];
+                }
+            }
+            min.start = block[start];
+            return min;
+        }
+
+        // Row displacement: overlay the sparse rows in one array, densest rows placed first,
+        // each at the lowest base where its live entries land on free slots
+        int[][] compress() {
+            int n = size();
+            Integer[] order = new Integer[n];
+            for (int s = 0; s < n; s++) order[s] = s;
+            Arrays.sort(order, (a, b) -> Integer.compare(live(b), live(a)));
+
+            int[] base = new int[n];
+            int[] next = new int[n * CLASS_COUNT];
+            int[] check = new int[n * CLASS_COUNT];
+            Arrays.fill(check, DEAD);
+            int used = 0;
+            for (int s : order) {
+                int[] row = rows.get(s);
+                int b = 0;
+                search:
+                while (true) {
+                    for (int c = 0; c < CLASS_COUNT; c++) {
+                        if (row[c] != DEAD && check[b + c] != DEAD) { b++; continue search; }
+                    }
+                    break;
+                }
+                base[s] = b;
+                for (int c = 0; c < CLASS_COUNT; c++) {
+                    if (row[c] != DEAD) {
+                        next[b + c] = row[c];
+                        check[b + c] = s;
+                    }
+                }
+                used = Math.max(used, b + CLASS_COUNT);
+            }
+            return new int[][] { base, Arrays.copyOf(next, used), Arrays.copyOf(check, used) };
+        }
+
+        private int live(int s) {
+            int k = 0;
+            for (int t : rows.get(s)) if (t != DEAD) k++;
+            return k;
+        }
+    }
+
+    // SCANNER
+
+    private final ByteBuffer src;
+    private int pos;
+    private final int limit;
+    private int cpWidth;          // byte width of the last decoded multi-byte char
+
+    // Result of the last scan(); positions are offsets, see Scanner.LineIndex
+    private Scanner.TokenType tokType;
+    private int tokStart, tokLen, tokKeyword;
+
+    FSMScanner(ByteBuffer utf8) {
+        this.src = utf8;
+        this.pos = utf8.position();
+        this.limit = utf8.limit();
+    }
+
+    FSMScanner(byte[] utf8) {
+        this(ByteBuffer.wrap(utf8));
+    }
+
+    static FSMScanner forFile(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new FSMScanner(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    private void scan() {
+        while (true) {
+            int start = pos;
+            if (start >= limit) {
+                tokType = Scanner.TokenType.EOF;
+                tokStart = start;
+                tokLen = 0;
+                tokKeyword = Scanner.Keywords.NONE;
+                return;
+            }
+            int s = START, p = start;
+            int acc = DEAD, accPos = start;
+            while (p < limit) {
+                int b = src.get(p);
+                int c, w;
+                if (b >= 0) { c = ASCII_CLASS[b]; w = 1; }
+                else { c = classOf(decode(p, b & 0xFF)); w = cpWidth; }
+                int i = BASE[s] + c;
+                if (CHECK[i] != s) break;
+                s = NEXT[i];
+                p += w;
+                if (ACTION[s] != A_NONE) { acc = s; accPos = p; }
+            }
+            // every transition out of START accepts, so acc is set; backing up only ever
+            // drops a '.' (the "12." case)
+            pos = accPos;
+            int act = ACTION[acc];
+            if (act == A_SKIP) continue;
+
+            tokType = TYPES[act - A_TOKEN];
+            tokStart = start;
+            tokLen = accPos - start;
+            tokKeyword = Scanner.Keywords.NONE;
+            if (tokType == Scanner.TokenType.IDENTIFIER) {
+                tokKeyword = Scanner.Keywords.match(src, start, tokLen);
+                if (tokKeyword != Scanner.Keywords.NONE) tokType = Scanner.TokenType.KEYWORD;
+            }
+            return;
+        }
+    }
+
+    // Multi-byte UTF-8 char at p (same rules as ScannerEngine: malformed input is U+FFFD)
+    private int decode(int p, int b0) {
+        int n, cp;
+        if ((b0 & 0xE0) == 0xC0) { n = 1; cp = b0 & 0x1F; }
+        else if ((b0 & 0xF0) == 0xE0) { n = 2; cp = b0 & 0x0F; }
+        else if ((b0 & 0xF8) == 0xF0) { n = 3; cp = b0 & 0x07; }
+        else { cpWidth = 1; return 0xFFFD; }
+        int q = p + 1;
+        for (int i = 0; i < n; i++) {
+            if (q >= limit) { cpWidth = q - p; return 0xFFFD; }
+            int b = src.get(q);
+            if ((b & 0xC0) != 0x80) { cpWidth = q - p; return 0xFFFD; }
+            cp = (cp << 6) | (b & 0x3F);
+            q++;
+        }
+        cpWidth = q - p;
+        return cp;
+    }
+
+    private static int classOf(int cp) {
+        switch (Scanner.ScannerEngine.classify(cp)) {
+            case Scanner.ScannerEngine.CC_LETTER: return C_LETTER;
+            case Scanner.ScannerEngine.CC_DIGIT:  return C_DIGIT;
+            default:                              return C_OTHER;
+        }
+    }
+
+    Scanner.Token nextToken() {
+        scan();
+        String lexeme = (tokType == Scanner.TokenType.EOF) ? ""
+                : (tokType == Scanner.TokenType.KEYWORD) ? Scanner.Keywords.name(tokKeyword)
+                : Scanner.ScannerEngine.decode(src, tokStart, tokLen);
+        return new Scanner.Token(tokType, lexeme, tokStart, tokKeyword);
+    }
+
+    List<Scanner.Token> scanAll() {
+        List<Scanner.Token> out = new ArrayList<>();
+        while (true) {
+            Scanner.Token t = nextToken();
+            out.add(t);
+            if (t.type == Scanner.TokenType.EOF) break;
+        }
+        return out;
+    }
+
+    Scanner.TokenBuffer scanAll(Scanner.TokenBuffer out) {
+        while (true) {
+            scan();
+            out.add(tokType, tokKeyword, tokStart, tokLen);
+            if (tokType == Scanner.TokenType.EOF) break;
+        }
+        return out;
+    }
+
+    Scanner.TokenBuffer scanAllBuffered() {
+        return scanAll(new Scanner.TokenBuffer(src));
+    }
+
+    // Usage: java FSMScanner [--stats] file
+    public static void main(String[] args) throws Exception {
+        String path = null;
+        for (String a : args) {
+            if (a.equals("--stats")) System.out.println(STATS);
+            else path = a;
+        }
+        if (path == null) return;
+        for (Scanner.Token t : forFile(Paths.get(path)).scanAll()) {
+            System.out.println(t.toString());
+        }
     }
-}
\ No newline at end of file
+}
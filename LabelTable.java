@@ -9,12 +9,18 @@ import java.util.*;
   
   This class implements the label table data structure and first pass logic
   for translating intermediate code atoms with label support.
+
+  Labels are keyed by SymbolTable id, so lookups during code generation are
+  array indexing; the String methods intern or look up the name first.
 */
 
 public class LabelTable {
     
-    // Core label table: maps label names to their instruction addresses
-    private final Map<String, Integer> labelAddresses;
+    // Core label table: instruction address per label symbol id
+    private final SymbolTable symbols;
+    private int[] labelAddresses;
+    private boolean[] defined;
+    private int labelCount;
     
     // Current instruction address counter (increments with each instruction)
     private int currentAddress;
@@ -26,7 +32,18 @@ public class LabelTable {
      * Constructor: Initialize empty label table
      */
     public LabelTable() {
-        this.labelAddresses = new HashMap<>();
+        this(new SymbolTable());
+    }
+    
+    /**
+     * Constructor: Initialize empty label table over a shared symbol table
+     * 
+     * @param symbols The table label names are interned into
+     */
+    public LabelTable(SymbolTable symbols) {
+        this.symbols = symbols;
+        this.labelAddresses = new int[16];
+        this.defined = new boolean[16];
         this.currentAddress = 0;
         this.firstPassComplete = false;
     }
@@ -39,10 +56,7 @@ public class LabelTable {
      * @throws IllegalArgumentException if label already exists
      */
     public void addLabel(String labelName) {
-        if (labelAddresses.containsKey(labelName)) {
-            throw new IllegalArgumentException("Duplicate label: " + labelName);
-        }
-        labelAddresses.put(labelName, currentAddress);
+        addLabel(symbols.intern(labelName), currentAddress);
     }
     
     /**
@@ -54,10 +68,28 @@ public class LabelTable {
      * @throws IllegalArgumentException if label already exists
      */
     public void addLabel(String labelName, int address) {
-        if (labelAddresses.containsKey(labelName)) {
-            throw new IllegalArgumentException("Duplicate label: " + labelName);
+        addLabel(symbols.intern(labelName), address);
+    }
+    
+    /**
+     * Add a label by symbol id at a specific address
+     * 
+     * @param labelId The label's SymbolTable id
+     * @param address The instruction address
+     * @throws IllegalArgumentException if label already exists
+     */
+    public void addLabel(int labelId, int address) {
+        if (hasLabel(labelId)) {
+            throw new IllegalArgumentException("Duplicate label: " + symbols.name(labelId));
         }
-        labelAddresses.put(labelName, address);
+        if (labelId >= defined.length) {
+            int cap = Math.max(labelId + 1, defined.length * 2);
+            labelAddresses = Arrays.copyOf(labelAddresses, cap);
+            defined = Arrays.copyOf(defined, cap);
+        }
+        labelAddresses[labelId] = address;
+        defined[labelId] = true;
+        labelCount++;
     }
     
     /**
@@ -68,7 +100,18 @@ public class LabelTable {
      * @return The instruction address, or null if label doesn't exist
      */
     public Integer getAddress(String labelName) {
-        return labelAddresses.get(labelName);
+        int id = symbols.lookup(labelName);
+        return hasLabel(id) ? labelAddresses[id] : null;
+    }
+    
+    /**
+     * Get the address of a label by symbol id
+     * 
+     * @param labelId The label's SymbolTable id; must satisfy hasLabel
+     * @return The instruction address
+     */
+    public int getAddress(int labelId) {
+        return labelAddresses[labelId];
     }
     
     /**
@@ -78,7 +121,17 @@ public class LabelTable {
      * @return true if label exists, false otherwise
      */
     public boolean hasLabel(String labelName) {
-        return labelAddresses.containsKey(labelName);
+        return hasLabel(symbols.lookup(labelName));
+    }
+    
+    /**
+     * Check if a label id has been defined
+     * 
+     * @param labelId The label's SymbolTable id
+     * @return true if label exists, false otherwise
+     */
+    public boolean hasLabel(int labelId) {
+        return labelId >= 0 && labelId < defined.length && defined[labelId];
     }
     
     /**
@@ -139,7 +192,8 @@ public class LabelTable {
      * Clears all labels and resets address counter
      */
     public void reset() {
-        labelAddresses.clear();
+        Arrays.fill(defined, false);
+        labelCount = 0;
         currentAddress = 0;
         firstPassComplete = false;
     }
@@ -150,7 +204,7 @@ public class LabelTable {
      * @return Number of labels
      */
     public int size() {
-        return labelAddresses.size();
+        return labelCount;
     }
     
     /**
@@ -160,7 +214,7 @@ public class LabelTable {
      * @return Set of all label names
      */
     public Set<String> getAllLabels() {
-        return new HashSet<>(labelAddresses.keySet());
+        return new HashSet<>(getTableCopy().keySet());
     }
     
     /**
@@ -170,7 +224,11 @@ public class LabelTable {
      * @return Map of label names to addresses
      */
     public Map<String, Integer> getTableCopy() {
-        return new HashMap<>(labelAddresses);
+        Map<String, Integer> copy = new HashMap<>();
+        for (int id = 0; id < defined.length; id++) {
+            if (defined[id]) copy.put(symbols.name(id), labelAddresses[id]);
+        }
+        return copy;
     }
     
     /**
@@ -182,12 +240,12 @@ public class LabelTable {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("Label Table (").append(labelAddresses.size()).append(" entries):\n");
+        sb.append("Label Table (").append(labelCount).append(" entries):\n");
         sb.append("Current Address: ").append(currentAddress).append("\n");
         sb.append("-".repeat(40)).append("\n");
         
         // Sort labels by address for readable output
-        labelAddresses.entrySet().stream()
+        getTableCopy().entrySet().stream()
             .sorted(Map.Entry.comparingByValue())
             .forEach(entry -> 
                 sb.append(String.format("%-20s -> Address %04d\n", 
@@ -283,7 +341,8 @@ public class LabelTable {
         List<String> errors = new ArrayList<>();
         
         // Check for negative addresses
-        for (Map.Entry<String, Integer> entry : labelAddresses.entrySet()) {
+        Map<String, Integer> table = getTableCopy();
+        for (Map.Entry<String, Integer> entry : table.entrySet()) {
             if (entry.getValue() < 0) {
                 errors.add("Label '" + entry.getKey() + 
                           "' has negative address: " + entry.getValue());
@@ -291,7 +350,7 @@ public class LabelTable {
         }
         
         // Check for empty label names
-        for (String label : labelAddresses.keySet()) {
+        for (String label : table.keySet()) {
             if (label == null || label.isEmpty()) {
                 errors.add("Found empty or null label name");
             }
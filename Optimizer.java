@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+  CS410 – Atom optimizer
+
+  Author(s):
+  Reviewer:
+
+  An AtomSink that sits between the parser and the code generator and passes
+  on a shorter program with the same effect:
+
+    - An assignment's (MOV, tN, , x) is folded into the atom that made tN, so
+      (ADD, a, b, t1) (MOV, t1, , x) becomes (ADD, a, b, x). The code generator
+      spends a LOD and a STO on every MOV.
+    - Self-moves (MOV, x, , x) are dropped.
+    - After (MOV, a, , x), later reads of x read a instead, until a or x is
+      assigned again or a label starts a new block. Only labels are jumped to,
+      so a copy seen on the way down holds until the next one. When that turns
+      both operands of an atom into constants the atom is folded, by the
+      parser's rules, into a MOV of the result.
+
+  Relies on what RDParser guarantees about temps: each one is read exactly once,
+  later in the same statement, so its producer can be redirected or, when it
+  only holds a constant, dropped. At most one atom is held back at a time.
+*/
+
+public class Optimizer implements Parser.AtomSink {
+
+    private static final int NONE = SymbolTable.NONE;
+
+    private final SymbolTable symbols;
+    private final Parser.AtomSink next;
+
+    private Parser.Atom held; // the last atom, while the next one may be the MOV of its temp
+    private int block = 1;    // bumped at each label; copies from earlier blocks are stale
+
+    // Per symbol slot (see slot()): the symbol it holds a copy of, the block that copy was made
+    // in (0 for none) and the source's version at the time, and how often it has been assigned
+    private int[] copyOf = new int[256];
+    private int[] copyBlock = new int[256];
+    private int[] copyVersion = new int[256];
+    private int[] version = new int[256];
+
+    public Optimizer(SymbolTable symbols, Parser.AtomSink next) {
+        this.symbols = symbols;
+        this.next = next;
+    }
+
+    @Override
+    public void emit(Parser.Atom a) throws IOException {
+        a = rewrite(a);
+
+        // the MOV of the held atom's temp: the held atom writes there itself
+        if (held != null && a.op == Parser.OpCode.MOV && a.left == held.result) {
+            held = new Parser.Atom(symbols, held.op, held.left, held.right, a.result);
+            assign(a.result);
+            if (!symbols.isTemp(a.result)) release();
+            return;
+        }
+        release();
+
+        switch (a.op) {
+            case LBL -> block++;
+            case MOV -> {
+                if (a.left == a.result) return;
+                assign(a.result);
+                if (!symbols.isTemp(a.left)) copy(a.result, a.left); // a temp is read only once
+                // a constant in a temp: its one read takes the constant instead
+                if (symbols.isTemp(a.result) && Parser.isConstant(symbols, a.left)) return;
+            }
+            case ADD, SUB, MUL, DIV, NEG -> {
+                assign(a.result);
+                if (symbols.isTemp(a.result)) {
+                    held = a;
+                    return;
+                }
+            }
+            default -> { }
+        }
+        next.emit(a);
+    }
+
+    @Override
+    public void end() throws IOException {
+        release();
+        next.end();
+    }
+
+    private void release() throws IOException {
+        if (held == null) return;
+        Parser.Atom a = held;
+        held = null;
+        next.emit(a);
+    }
+
+    // Operands replaced by what they are copies of, and arithmetic on two constants folded
+    private Parser.Atom rewrite(Parser.Atom a) {
+        int left = lookup(a.left);
+        int right = lookup(a.right);
+        switch (a.op) {
+            case ADD, SUB, MUL, DIV, NEG -> {
+                int c = Parser.fold(symbols, a.op, left, right);
+                if (c != NONE) return new Parser.Atom(symbols, Parser.OpCode.MOV, c, NONE, a.result);
+            }
+            default -> { }
+        }
+        if (left == a.left && right == a.right) return a;
+        return new Parser.Atom(symbols, a.op, left, right, a.result, a.cmp, a.dest);
+    }
+
+    private int lookup(int sym) {
+        if (sym == NONE || symbols.isNumber(sym)) return sym;
+        int s = slot(sym);
+        if (s >= copyBlock.length || copyBlock[s] != block) return sym;
+        int source = copyOf[s];
+        return versionOf(source) == copyVersion[s] ? source : sym;
+    }
+
+    // sym gets a new value: copies of it go stale, and so does its own
+    private void assign(int sym) {
+        int s = slot(sym);
+        if (s >= version.length) grow(s);
+        version[s]++;
+        copyBlock[s] = 0;
+    }
+
+    private void copy(int dest, int source) {
+        int s = slot(dest);
+        copyOf[s] = source;
+        copyBlock[s] = block;
+        copyVersion[s] = versionOf(source);
+    }
+
+    private int versionOf(int sym) {
+        int s = slot(sym);
+        return s < version.length ? version[s] : 0;
+    }
+
+    // Symbols at even slots, temps at odd ones
+    private static int slot(int sym) {
+        return sym >= 0 ? 2 * sym : 2 * SymbolTable.tempNumber(sym) - 1;
+    }
+
+    private void grow(int s) {
+        int n = Math.max(s + 1, version.length * 2);
+        copyOf = Arrays.copyOf(copyOf, n);
+        copyBlock = Arrays.copyOf(copyBlock, n);
+        copyVersion = Arrays.copyOf(copyVersion, n);
+        version = Arrays.copyOf(version, n);
+    }
+}
@@ -1,5 +1,10 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 //CS410 – Phase 2: Parser
@@ -12,46 +17,41 @@ public class Parser {
 
     
     //Token model & source
-    enum TokenType 
-    {
-        // identifiers/keywords
-        IDENTIFIER, KEYWORD,
-
-        // literals
-        INT_LITERAL, FLOAT_LITERAL,
-
-        // operators & punctuation
-        ASSIGN,    
-        EQ, NE, LT, GT, LE, GE, 
-        PLUS, MINUS, STAR, SLASH,
-        LPAREN, RPAREN, SEMICOLON,
-
-        // special
-        EOF, ERROR
-    }
+    // Token kinds are Scanner.TokenType, shared with the scanner; a Token adds what the
+    // parser needs on top of the scanner's (symbol id, input file).
 
 
     static class Token 
     {
-        final TokenType type;
+        final Scanner.TokenType type;
         final String lexeme; 
-        final int line, col;
+        final int offset;  // start in its input; TokenSource.position() turns it into line:col
+        final int keyword; // Scanner.Keywords id, or Scanner.Keywords.NONE
+        final int sym;     // SymbolTable id for identifiers and literals, else SymbolTable.NONE
+        final int file;    // input the token came from: 0 for the main one, else an included file
 
-        Token(TokenType type, String lexeme, int line, int col) 
+        Token(Scanner.TokenType type, String lexeme, int offset, int keyword, int sym) 
+        {
+            this(type, lexeme, offset, keyword, sym, 0);
+        }
+
+        Token(Scanner.TokenType type, String lexeme, int offset, int keyword, int sym, int file) 
         {
             this.type = type; 
             this.lexeme = lexeme; 
-            this.line = line; 
-            this.col = col;
+            this.offset = offset;
+            this.keyword = keyword;
+            this.sym = sym;
+            this.file = file;
         }
 
         @Override public String toString() 
         {
             return type + (switch (type) 
             {
-                case IDENTIFIER, KEYWORD, INT_LITERAL, FLOAT_LITERAL -> "("+lexeme+")";
+                case IDENTIFIER, KEYWORD, INT_LITERAL, FLOAT_LITERAL, CHAR_LITERAL, STRING_LITERAL -> "("+lexeme+")";
                 default -> "";
-            }) + " @" + line + ":" + col;
+            }) + " @" + offset;
 
         }
     }
@@ -60,93 +60,133 @@ public class Parser {
     interface TokenSource 
     {
         Token peek() throws IOException;
+        Token peek(int k) throws IOException; // k tokens past the next one; peek(0) == peek()
         Token next() throws IOException;
+        SymbolTable symbols(); // table the token syms were interned into
+        String position(Token t); // "line:col" of a token this source returned, for errors
+    }
+
+
+    // Lookahead shared by the token sources: each token is produced (scanned, classified and
+    // interned) exactly once, into a ring holding the tokens peeked but not yet consumed. The
+    // ring starts small and doubles if the parser ever looks further ahead.
+    abstract static class LookaheadSource implements TokenSource 
+    {
+        private Token[] ring = new Token[4]; // length is a power of two
+        private int head, count;
+
+        // The token after the last one produced; sources repeat their EOF once they run out
+        protected abstract Token produce() throws IOException;
+
+        @Override public Token peek() throws IOException 
+        {
+            return peek(0);
+        }
+
+        @Override public Token peek(int k) throws IOException 
+        {
+            while (count <= k) 
+            {
+                if (count == ring.length) grow();
+                ring[(head + count) & (ring.length - 1)] = produce();
+                count++;
+            }
+            return ring[(head + k) & (ring.length - 1)];
+        }
+
+        @Override public Token next() throws IOException 
+        {
+            Token t = peek(0);
+            ring[head] = null;
+            head = (head + 1) & (ring.length - 1);
+            count--;
+            return t;
+        }
+
+        // Drop buffered lookahead, for sources that are reset onto new input
+        protected void clearLookahead() 
+        {
+            Arrays.fill(ring, null);
+            head = count = 0;
+        }
+
+        private void grow() 
+        {
+            Token[] bigger = new Token[ring.length * 2];
+            for (int i = 0; i < count; i++) bigger[i] = ring[(head + i) & (ring.length - 1)];
+            ring = bigger;
+            head = 0;
+        }
     }
 
     
     
-static class ScannerAdapter implements TokenSource 
+static class ScannerAdapter extends LookaheadSource 
 {
     private final Scanner.ScannerEngine eng;     //scanner from part 1 
-    private Scanner.Token buffered;               // buffer 1-token lookahead
+    private final SymbolTable symbols;
 
     ScannerAdapter(Reader r) 
     {
-        this.eng = new Scanner.ScannerEngine(r);
+        this(new Scanner.ScannerEngine(r), new SymbolTable());
     }
 
 
-    @Override public Token peek() throws IOException 
+    ScannerAdapter(Scanner.ScannerEngine eng, SymbolTable symbols) 
     {
-        if (buffered == null) buffered = eng.nextToken();
-        return convert(buffered);
+        this.eng = eng;
+        this.symbols = symbols;
     }
 
 
-    @Override public Token next() throws IOException 
+    // Reuse this adapter and its engine for the next input
+    ScannerAdapter reset(Reader r) 
     {
-        Token t = peek();
-        buffered = null;
-        return t;
+        eng.reset(r);
+        clearLookahead();
+        return this;
     }
 
 
-    // Scanner.Token -> Parser.Token
-    private Token convert(Scanner.Token st) 
+    @Override public SymbolTable symbols() 
     {
-        TokenType tt = mapType(st.type, st.lexeme);
-        String lex = mapLexeme(st.type, st.lexeme);
-        return new Token(tt, lex, st.line, st.col);
+        return symbols;
     }
 
 
-    // TokenType mapping between scanner and parser
-    private TokenType mapType(Scanner.TokenType t, String lexeme) 
+    @Override public String position(Token t) 
     {
-        switch (t) 
-        {
-            // identifiers/keywords
-            case IDENTIFIER:   return TokenType.IDENTIFIER;
-            case KEYWORD:      return TokenType.KEYWORD;
+        return eng.lines().position(t.offset);
+    }
 
-            // literals
-            case INT_LITERAL:  return TokenType.INT_LITERAL;
-            case FLOAT_LITERAL:return TokenType.FLOAT_LITERAL;
-            case CHAR_LITERAL: return TokenType.INT_LITERAL; 
 
-            // operators / punctuation 
-            case ASSIGN: return TokenType.ASSIGN;
-            case EQ:     return TokenType.EQ;
-            case NE:     return TokenType.NE;
-            case LT:     return TokenType.LT;
-            case GT:     return TokenType.GT;
-            case LE:     return TokenType.LE;
-            case GE:     return TokenType.GE;
-            case PLUS:   return TokenType.PLUS;
-            case MINUS:  return TokenType.MINUS;
-            case STAR:   return TokenType.STAR;
-            case SLASH:  return TokenType.SLASH;
-            case LPAREN: return TokenType.LPAREN;
-            case RPAREN: return TokenType.RPAREN;
-            case SEMICOLON: return TokenType.SEMICOLON;
+    @Override protected Token produce() throws IOException 
+    {
+        return convert(eng.nextToken());
+    }
 
-            // stuff parser doesn’t currently handle treated as ERROR so the parser will complain clearly
-            case NOT:
-            case PERCENT:
-            case LBRACE:
-            case RBRACE:
-            case COMMA:
-                return TokenType.ERROR;
 
-            case EOF:    return TokenType.EOF;
-            case ERROR:  return TokenType.ERROR;
+    // Scanner.Token -> Parser.Token
+    private Token convert(Scanner.Token st) 
+    {
+        String lex = st.lexeme;
+        int sym = SymbolTable.NONE;
+        switch (st.type) 
+        {
+            case IDENTIFIER, INT_LITERAL, FLOAT_LITERAL -> 
+            {
+                sym = symbols.intern(lex);
+                lex = symbols.name(sym); // share one String per distinct name
+            }
+            case CHAR_LITERAL -> sym = symbols.intern(mapLexeme(st.type, lex));
+            default -> { }
         }
-        return TokenType.ERROR;
+        return new Token(st.type, lex, st.offset, st.keyword, sym);
     }
 
 
-    // Convert char literals to an integer lexeme so expressions can use them
-    private String mapLexeme(Scanner.TokenType t, String lexeme) 
+    // Value of a char literal as an integer lexeme, so expressions can use it like an INT
+    static String mapLexeme(Scanner.TokenType t, String lexeme) 
     {
         if (t == Scanner.TokenType.CHAR_LITERAL) 
         {
@@ -179,26 +219,283 @@ static class ScannerAdapter implements TokenSource
 }
 
 
+// Reads tokens straight out of a Scanner.TokenBuffer. Lexemes are slices of the scanned
+// bytes; identifiers and literals are interned straight from those bytes, so a String is only
+// built the first time a name is seen. Keywords and punctuation use fixed spellings. Each
+// buffered token is converted once, when it is first peeked. Given an engine instead of a
+// scanned buffer, it scans BATCH tokens at a time into one reused buffer, so memory does not
+// grow with the input; given TokenBatches, it takes each next buffer from them.
+static class TokenBufferSource extends LookaheadSource 
+{
+    static final int BATCH = 4096;
+
+    // Supplies the next buffer of tokens once the current one has been read
+    interface TokenBatches 
+    {
+        Scanner.TokenBuffer next(Scanner.TokenBuffer used) throws IOException;
+    }
+
+    private Scanner.TokenBuffer buf;
+    private final TokenBatches batches; // null when buf already holds every token
+    private final SymbolTable symbols;
+    private final int file;
+    private int index;
+
+    TokenBufferSource(Scanner.TokenBuffer buf) 
+    {
+        this(buf, new SymbolTable());
+    }
+
+
+    TokenBufferSource(Scanner.TokenBuffer buf, SymbolTable symbols) 
+    {
+        this(buf, symbols, 0);
+    }
+
+
+    // file: id stamped on every token, see Token.file
+    TokenBufferSource(Scanner.TokenBuffer buf, SymbolTable symbols, int file) 
+    {
+        this(buf, null, symbols, file);
+    }
+
+
+    // Streams from an engine over a byte buffer
+    TokenBufferSource(Scanner.ScannerEngine eng) 
+    {
+        this(eng, new SymbolTable());
+    }
+
+
+    TokenBufferSource(Scanner.ScannerEngine eng, SymbolTable symbols) 
+    {
+        this(new Scanner.TokenBuffer(eng.source(), BATCH), used -> {
+            used.clear();
+            eng.scanSome(used, BATCH);
+            return used;
+        }, symbols, 0);
+    }
+
+
+    // first: the buffer to read before asking batches for the next one (may be empty)
+    TokenBufferSource(Scanner.TokenBuffer first, TokenBatches batches, SymbolTable symbols, int file) 
+    {
+        this.buf = first;
+        this.batches = batches;
+        this.symbols = symbols;
+        this.file = file;
+    }
+
+
+    @Override public SymbolTable symbols() 
+    {
+        return symbols;
+    }
+
+
+    @Override public String position(Token t) 
+    {
+        return buf.lines().position(t.offset);
+    }
+
+
+    @Override protected Token produce() throws IOException 
+    {
+        if (index == buf.size()) 
+        {
+            buf = batches.next(buf);
+            index = 0;
+        }
+        Token t = convert(index);
+        if (t.type != Scanner.TokenType.EOF) index++; // stay on the trailing EOF
+        return t;
+    }
+
+
+    private Token convert(int i) 
+    {
+        Scanner.TokenType st = buf.type(i);
+        int sym = switch (st) 
+        {
+            case IDENTIFIER, INT_LITERAL, FLOAT_LITERAL -> symbols.intern(buf.source, buf.start(i), buf.length(i));
+            case CHAR_LITERAL -> symbols.intern(ScannerAdapter.mapLexeme(st, buf.lexeme(i)));
+            default -> SymbolTable.NONE;
+        };
+        String lex = switch (st) 
+        {
+            case KEYWORD -> Scanner.Keywords.name(buf.keyword(i));
+            case IDENTIFIER, INT_LITERAL, FLOAT_LITERAL -> symbols.name(sym);
+            case CHAR_LITERAL, STRING_LITERAL, ERROR -> buf.lexeme(i);
+            default -> spelling(st);
+        };
+        return new Token(st, lex, buf.start(i), buf.keyword(i), sym, file);
+    }
+
+
+    private static String spelling(Scanner.TokenType t) 
+    {
+        return switch (t) 
+        {
+            case ASSIGN -> "=";
+            case EQ -> "==";
+            case LT -> "<";
+            case GT -> ">";
+            case LE -> "<=";
+            case GE -> ">=";
+            case NE -> "!=";
+            case NOT -> "!";
+            case PLUS -> "+";
+            case MINUS -> "-";
+            case STAR -> "*";
+            case SLASH -> "/";
+            case PERCENT -> "%";
+            case LPAREN -> "(";
+            case RPAREN -> ")";
+            case LBRACE -> "{";
+            case RBRACE -> "}";
+            case SEMICOLON -> ";";
+            case COMMA -> ",";
+            default -> "";
+        };
+    }
+}
+
+
+// Splices included files into the token stream. The scanner skips '#', so a directive is the
+// include keyword followed by a string literal naming the file, resolved against the directory
+// of the file that includes it. Each file is tokenized once per compile (through the on-disk
+// TokenCache when there is one), however often it is included.
+static class IncludeSource extends LookaheadSource
+{
+    private final TokenSource main;
+    private final Scanner.TokenCache cache;                 // null: always scan
+    private final Map<Path, Integer> fileIds = new HashMap<>();
+    private final List<String> names = new ArrayList<>();   // by Token.file; 0 is the main input
+    private final List<Scanner.TokenBuffer> files = new ArrayList<>();
+    private final Deque<Frame> open = new ArrayDeque<>();   // innermost include first
+
+    private static final class Frame
+    {
+        final TokenSource tokens;
+        final Path file; // null when the main input is not a file
+        final Path dir;  // includes are resolved against this
+
+        Frame(TokenSource tokens, Path file, Path dir)
+        {
+            this.tokens = tokens;
+            this.file = file;
+            this.dir = dir;
+        }
+    }
+
+
+    // mainFile: where main was read from, or null for stdin (includes then resolve against the cwd)
+    IncludeSource(TokenSource main, Path mainFile, Scanner.TokenCache cache)
+    {
+        this.main = main;
+        this.cache = cache;
+        Path file = (mainFile == null) ? null : mainFile.toAbsolutePath().normalize();
+        names.add(file == null ? "<stdin>" : file.getFileName().toString());
+        files.add(null);
+        if (file != null) fileIds.put(file, 0);
+        open.push(new Frame(main, file, file == null ? Paths.get("").toAbsolutePath() : file.getParent()));
+    }
+
+
+    @Override public SymbolTable symbols()
+    {
+        return main.symbols();
+    }
+
+
+    // Positions in included files are prefixed with the name they were included by
+    @Override public String position(Token t)
+    {
+        if (t.file == 0) return main.position(t);
+        return names.get(t.file) + ":" + files.get(t.file).lines().position(t.offset);
+    }
+
+
+    @Override protected Token produce() throws IOException
+    {
+        while (true)
+        {
+            Frame f = open.peek();
+            Token t = f.tokens.next();
+            if (t.type == Scanner.TokenType.EOF && open.size() > 1)
+            {
+                open.pop(); // back to the includer
+                continue;
+            }
+            if (t.keyword != Scanner.Keywords.INCLUDE) return t;
+
+            Token name = f.tokens.next();
+            if (name.type != Scanner.TokenType.STRING_LITERAL) throw errorAt(name, "expected \"file\" after include");
+            enter(f, name);
+        }
+    }
+
+
+    private void enter(Frame from, Token name)
+    {
+        String spelled = name.lexeme.substring(1, name.lexeme.length() - 1);
+        Path file = from.dir.resolve(spelled).toAbsolutePath().normalize();
+        for (Frame f : open)
+        {
+            if (file.equals(f.file)) throw errorAt(name, "recursive include of " + name.lexeme);
+        }
+
+        Integer id = fileIds.get(file);
+        if (id == null)
+        {
+            Scanner.TokenBuffer tokens;
+            try
+            {
+                tokens = (cache != null) ? cache.load(file) : Scanner.ScannerEngine.forFile(file).scanAllBuffered();
+            }
+            catch (IOException e)
+            {
+                throw errorAt(name, "cannot read include file " + name.lexeme);
+            }
+            id = files.size();
+            files.add(tokens);
+            names.add(spelled);
+            fileIds.put(file, id);
+        }
+        open.push(new Frame(new TokenBufferSource(files.get(id), main.symbols(), id), file, file.getParent()));
+    }
+
+
+    private RuntimeException errorAt(Token t, String msg)
+    {
+        return new RuntimeException("Parse error at "+position(t)+": "+msg);
+    }
+}
+
+
     // Atom model
     enum OpCode { ADD, SUB, MUL, DIV, JMP, NEG, LBL, TST, MOV }
 
 
+    // Operands are SymbolTable ids; SymbolTable.NONE when not used
     static class Atom 
     {
         final OpCode op;
-        final String left;   // null or "" when not used
-        final String right;  // null or ""
-        final String result; // null or ""
+        final int left;
+        final int right;
+        final int result;
         final Integer cmp;   // only for TST, else null
-        final String dest;   // only for JMP/LBL/TST, else null
+        final int dest;      // only for JMP/LBL/TST, else NONE
+        final SymbolTable symbols;
 
-        Atom(OpCode op, String left, String right, String result) 
+        Atom(SymbolTable symbols, OpCode op, int left, int right, int result) 
         {
-            this(op, left, right, result, null, null);
+            this(symbols, op, left, right, result, null, SymbolTable.NONE);
         }
 
-        Atom(OpCode op, String left, String right, String result, Integer cmp, String dest) 
+        Atom(SymbolTable symbols, OpCode op, int left, int right, int result, Integer cmp, int dest) 
         {
+            this.symbols = symbols;
             this.op = op;
             this.left = left;
             this.right = right;
@@ -208,21 +505,268 @@ static class ScannerAdapter implements TokenSource
         }
         @Override public String toString() 
         {
-            // Print in tuple formats
+            // Print in tuple formats (TextSink writes the same bytes without building a String)
+            StringBuilder sb = new StringBuilder(32).append('(').append(op).append(", ");
             return switch (op) 
             {
-                case ADD -> String.format("(ADD, %s, %s, %s)", nv(left), nv(right), nv(result));
-                case SUB -> String.format("(SUB, %s, %s, %s)", nv(left), nv(right), nv(result));
-                case MUL -> String.format("(MUL, %s, %s, %s)", nv(left), nv(right), nv(result));
-                case DIV -> String.format("(DIV, %s, %s, %s)", nv(left), nv(right), nv(result));
-                case NEG -> String.format("(NEG, %s, , %s)", nv(left), nv(result));
-                case MOV -> String.format("(MOV, %s, , %s)", nv(left), nv(result));
-                case JMP -> String.format("(JMP, , , , , %s)", nv(dest));
-                case LBL -> String.format("(LBL, , , , , %s)", nv(dest));
-                case TST -> String.format("(TST, %s, %s, , %d, %s)", nv(left), nv(right), cmp, nv(dest));
+                case ADD, SUB, MUL, DIV -> sb.append(nv(left)).append(", ").append(nv(right)).append(", ").append(nv(result)).append(')').toString();
+                case NEG, MOV -> sb.append(nv(left)).append(", , ").append(nv(result)).append(')').toString();
+                case JMP, LBL -> sb.append(", , , , ").append(nv(dest)).append(')').toString();
+                case TST -> sb.append(nv(left)).append(", ").append(nv(right)).append(", , ").append(cmp).append(", ").append(nv(dest)).append(')').toString();
             };
         }
-        private static String nv(String s) { return s == null ? "" : s; }
+        private String nv(int sym) { return sym == SymbolTable.NONE ? "" : symbols.name(sym); }
+    }
+
+
+    // Where RDParser hands each atom as soon as it is complete, so no stage has to hold the
+    // whole program. Any later stage can implement this to be fed directly.
+    interface AtomSink 
+    {
+        void emit(Atom a) throws IOException;
+        default void end() throws IOException { } // after the last atom
+    }
+
+
+    // One atom per line in the tuple text format
+    static class PrintSink implements AtomSink 
+    {
+        private final PrintStream out;
+
+        PrintSink(PrintStream out) 
+        {
+            this.out = out;
+        }
+
+        @Override public void emit(Atom a) 
+        {
+            out.println(a);
+        }
+
+        @Override public void end() 
+        {
+            out.flush();
+        }
+    }
+
+
+    // Same text as PrintSink, without a String per atom: each atom is appended as bytes into one
+    // reusable buffer that is written to the channel whenever it fills. Symbol names are encoded
+    // once each, in the charset of the PrintStream it stands in for, so the output is byte-identical.
+    // The fixed parts are written as ASCII, so the charset must be ASCII-compatible (supports()).
+    static class TextSink implements AtomSink 
+    {
+        private static final byte[][] OPS = new byte[OpCode.values().length][];
+        private static final byte[] SEP = ascii(", ");
+        private static final byte[] EMPTY_ONE = ascii(", , ");
+        private static final byte[] EMPTY_FOUR = ascii(", , , , ");
+        private static final byte[] NULL = ascii("null");
+
+        static {
+            for (OpCode op : OpCode.values()) OPS[op.ordinal()] = ascii("(" + op + ", ");
+        }
+
+        private final WritableByteChannel out;
+        private final SymbolTable symbols;
+        private final Charset charset;
+        private final byte[] newline;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        private byte[][] names = new byte[256][]; // encoded name per symbol id, filled on first use
+
+        // Text in the default charset, as a PrintStream on a file writes it
+        TextSink(WritableByteChannel out, SymbolTable symbols) 
+        {
+            this(out, symbols, Charset.defaultCharset());
+        }
+
+        TextSink(WritableByteChannel out, SymbolTable symbols, Charset charset) 
+        {
+            this.out = out;
+            this.symbols = symbols;
+            this.charset = charset;
+            this.newline = System.lineSeparator().getBytes(charset);
+        }
+
+        // Whether charset writes ASCII text as the same bytes (UTF-8 and the 8-bit charsets do)
+        static boolean supports(Charset charset) 
+        {
+            String probe = "(MOV, t1, , x)\r\n";
+            return Arrays.equals(probe.getBytes(charset), probe.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        // The charset System.out encodes with: stdout.encoding, or sun.stdout.encoding on
+        // older runtimes, else the default (what PrintStream.charset() reports from Java 18)
+        static Charset stdoutCharset() 
+        {
+            String name = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+            try 
+            {
+                return (name == null) ? Charset.defaultCharset() : Charset.forName(name);
+            } 
+            catch (IllegalArgumentException e) 
+            {
+                return Charset.defaultCharset();
+            }
+        }
+
+        @Override public void emit(Atom a) throws IOException 
+        {
+            put(OPS[a.op.ordinal()]);
+            switch (a.op) 
+            {
+                case ADD, SUB, MUL, DIV -> { name(a.left); put(SEP); name(a.right); put(SEP); name(a.result); }
+                case NEG, MOV -> { name(a.left); put(EMPTY_ONE); name(a.result); }
+                case JMP, LBL -> { put(EMPTY_FOUR); name(a.dest); }
+                case TST -> 
+                {
+                    name(a.left); put(SEP); name(a.right); put(EMPTY_ONE);
+                    if (a.cmp == null) put(NULL); else number(a.cmp);
+                    put(SEP); name(a.dest);
+                }
+            }
+            room(1 + newline.length);
+            buf.put((byte) ')').put(newline);
+        }
+
+        // Write out what is buffered; the channel itself is left open
+        @Override public void end() throws IOException 
+        {
+            buf.flip();
+            while (buf.hasRemaining()) out.write(buf);
+            buf.clear();
+        }
+
+        private void name(int sym) throws IOException 
+        {
+            if (sym == SymbolTable.NONE) return;
+            if (symbols.isTemp(sym)) 
+            {
+                room(1);
+                buf.put((byte) 't');
+                number(SymbolTable.tempNumber(sym));
+                return;
+            }
+            if (sym >= names.length) names = Arrays.copyOf(names, Math.max(sym + 1, names.length * 2));
+            byte[] b = names[sym];
+            if (b == null) b = names[sym] = symbols.name(sym).getBytes(charset);
+            put(b);
+        }
+
+        private void number(int n) throws IOException 
+        {
+            room(11);
+            if (n < 0) 
+            {
+                buf.put((byte) '-');
+                if (n == Integer.MIN_VALUE) { put(ascii("2147483648")); return; }
+                n = -n;
+            }
+            int p = buf.position(), digits = 1;
+            for (int v = n; v >= 10; v /= 10) digits++;
+            for (int i = p + digits - 1; i >= p; i--, n /= 10) buf.put(i, (byte) ('0' + n % 10));
+            buf.position(p + digits);
+        }
+
+        private void put(byte[] b) throws IOException 
+        {
+            if (b.length > buf.remaining()) 
+            {
+                end();
+                if (b.length > buf.capacity()) 
+                {
+                    ByteBuffer big = ByteBuffer.wrap(b);
+                    while (big.hasRemaining()) out.write(big);
+                    return;
+                }
+            }
+            buf.put(b);
+        }
+
+        private void room(int n) throws IOException 
+        {
+            if (buf.remaining() < n) end();
+        }
+
+        private static byte[] ascii(String s) 
+        {
+            return s.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+
+    // Keeps every atom, for callers that want the program as a list
+    static class ListSink implements AtomSink 
+    {
+        final List<Atom> atoms = new ArrayList<>();
+
+        @Override public void emit(Atom a) 
+        {
+            atoms.add(a);
+        }
+    }
+
+
+    // Hands each atom to two sinks, e.g. a text dump alongside the next stage
+    static class TeeSink implements AtomSink 
+    {
+        private final AtomSink first, second;
+
+        TeeSink(AtomSink first, AtomSink second) 
+        {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override public void emit(Atom a) throws IOException 
+        {
+            first.emit(a);
+            second.emit(a);
+        }
+
+        @Override public void end() throws IOException 
+        {
+            first.end();
+            second.end();
+        }
+    }
+
+
+    // Constant folding, shared by RDParser and Optimizer
+
+    // The constant op (ADD, SUB, MUL, DIV or NEG) makes of left and right (right unused for NEG),
+    // or NONE if they are not both integer constants, it would divide by zero, or the result is
+    // not a literal the code generator can encode (0 to CodeGenerator.MAX_ADDRESS)
+    static int fold(SymbolTable symbols, OpCode op, int left, int right) 
+    {
+        if (!isConstant(symbols, left) || (op != OpCode.NEG && !isConstant(symbols, right))) return SymbolTable.NONE;
+        long a = value(symbols, left);
+        long b = (op == OpCode.NEG) ? 0 : value(symbols, right);
+        if (op == OpCode.DIV && b == 0) return SymbolTable.NONE;
+        long v = switch (op) 
+        {
+            case NEG -> -a;
+            case ADD -> a + b;
+            case SUB -> a - b;
+            case MUL -> a * b;
+            default -> a / b;
+        };
+        return (v < 0 || v > CodeGenerator.MAX_ADDRESS) ? SymbolTable.NONE : constant(symbols, (int) v);
+    }
+
+    // Number symbols short enough to parse; the code generator reads them as (int) of a long
+    static boolean isConstant(SymbolTable symbols, int sym) 
+    {
+        return symbols.isNumber(sym) && symbols.name(sym).length() <= 18;
+    }
+
+    private static int value(SymbolTable symbols, int sym) 
+    {
+        return (int) Long.parseLong(symbols.name(sym));
+    }
+
+    private static int constant(SymbolTable symbols, int v) 
+    {
+        return symbols.intern(Integer.toString(v));
     }
 
 
@@ -230,27 +774,73 @@ static class ScannerAdapter implements TokenSource
     static class RDParser 
     { 
         private final TokenSource ts;
-        private final List<Atom> code = new ArrayList<>();
+        private final SymbolTable symbols;
+        private AtomSink sink;
+        private AtomSink out; // sink, or a list holding a loop's bottom atoms while its header is parsed
+        private int emitted;
+        private int labelCounter = 0;
+
+        // Open { } blocks, innermost last, each with the atoms that go before its closing brace
+        private final List<List<Atom>> blocks = new ArrayList<>();
         private int tempCounter = 0;
+        private final BitSet freeTemps = new BitSet(); // temp numbers whose value has been used
+        private final boolean treeIR;
 
-        private TokenType peekType() throws IOException 
+        private Scanner.TokenType peekType() throws IOException 
         {
         return ts.peek().type;
         }
 
-        RDParser(TokenSource ts) { this.ts = ts; }
+        RDParser(TokenSource ts) 
+        { 
+            this(ts, false);
+        }
+
+        // treeIR: build each expression as a tree and emit it in Sethi-Ullman order
+        RDParser(TokenSource ts, boolean treeIR) 
+        { 
+            this.ts = ts; 
+            this.symbols = ts.symbols(); 
+            this.treeIR = treeIR;
+        }
 
         List<Atom> parseProgram() throws IOException 
         {
-            while (peekType() != TokenType.EOF) 
+            ListSink atoms = new ListSink();
+            parseProgram(atoms);
+            return atoms.atoms;
+        }
+
+        // Streams each atom into sink as it is produced; returns how many there were
+        // Blocks are tracked on a list rather than by recursion, so nesting depth is not limited
+        // by the thread stack
+        int parseProgram(AtomSink sink) throws IOException 
+        {
+            this.sink = out = sink;
+            while (peekType() != Scanner.TokenType.EOF) 
             {
-                if (peekType() == TokenType.SEMICOLON) 
+                if (peekType() == Scanner.TokenType.SEMICOLON) 
                 { 
                     ts.next(); continue; 
                 }
+                if (peekType() == Scanner.TokenType.LBRACE) 
+                {
+                    ts.next();
+                    blocks.add(List.of());
+                    continue;
+                }
+                if (peekType() == Scanner.TokenType.RBRACE) 
+                {
+                    if (blocks.isEmpty()) throw error("unexpected }");
+                    ts.next();
+                    for (Atom a : blocks.remove(blocks.size() - 1)) emit(a);
+                    continue;
+                }
                 parseStatement();
             }
-            return code;
+            if (!blocks.isEmpty()) throw error("expected } before end of input");
+            out.end();
+            return emitted;
         }
 
         // statements 
@@ -259,57 +849,154 @@ static class ScannerAdapter implements TokenSource
         {
             Token t = ts.peek();
 
-            if (isKeyword("label")) 
+            if (isKeyword(Scanner.Keywords.LABEL)) 
             {
                 ts.next();
-                String label = expect(TokenType.IDENTIFIER, "label name").lexeme;
-                expect(TokenType.SEMICOLON, ";");
-                code.add(new Atom(OpCode.LBL, null, null, null, null, label));
+                int label = expect(Scanner.TokenType.IDENTIFIER, "label name").sym;
+                expect(Scanner.TokenType.SEMICOLON, ";");
+                emit(atom(OpCode.LBL, NONE, NONE, NONE, null, label));
                 return;
             }
 
-            if (isKeyword("goto")) 
+            if (isKeyword(Scanner.Keywords.GOTO)) 
             {
                 ts.next();
-                String dest = expect(TokenType.IDENTIFIER, "label after goto").lexeme;
-                expect(TokenType.SEMICOLON, ";");
-                code.add(new Atom(OpCode.JMP, null, null, null, null, dest));
+                int dest = expect(Scanner.TokenType.IDENTIFIER, "label after goto").sym;
+                expect(Scanner.TokenType.SEMICOLON, ";");
+                emit(atom(OpCode.JMP, NONE, NONE, NONE, null, dest));
                 return;
             }
 
-            if (isKeyword("if")) 
+            if (isKeyword(Scanner.Keywords.IF)) 
             {
                 ts.next();
-                expect(TokenType.LPAREN, "(");
+                expect(Scanner.TokenType.LPAREN, "(");
                 Cond c = parseCondition();
-                expect(TokenType.RPAREN, ")");
-                if (!isKeyword("goto")) error("expected 'goto' after if(condition)");
+                expect(Scanner.TokenType.RPAREN, ")");
+                if (!isKeyword(Scanner.Keywords.GOTO)) throw error("expected 'goto' after if(condition)");
                 ts.next();
 
-                String dest = expect(TokenType.IDENTIFIER, "label after goto").lexeme;
-                expect(TokenType.SEMICOLON, ";");
-                code.add(new Atom(OpCode.TST, c.left, c.right, null, c.cmpCode, dest));
+                int dest = expect(Scanner.TokenType.IDENTIFIER, "label after goto").sym;
+                expect(Scanner.TokenType.SEMICOLON, ";");
+                emitTest(c, dest);
+                return;
+            }
+
+            if (isKeyword(Scanner.Keywords.WHILE)) 
+            {
+                ts.next();
+                expect(Scanner.TokenType.LPAREN, "(");
+                int body = newLabel(), test = newLabel();
+                ListSink cond = new ListSink();
+                out = cond;
+                emitTest(parseCondition(), body);
+                out = sink;
+                expect(Scanner.TokenType.RPAREN, ")");
+                openLoop(body, test, List.of(), cond.atoms);
                 return;
             }
 
-            // assignment
-            String lhs = expect(TokenType.IDENTIFIER, "assignment LHS identifier").lexeme;
-            expect(TokenType.ASSIGN, "=");
+            if (isKeyword(Scanner.Keywords.FOR)) 
+            {
+                ts.next();
+                expect(Scanner.TokenType.LPAREN, "(");
+                if (peekType() != Scanner.TokenType.SEMICOLON) parseAssignment(Scanner.TokenType.SEMICOLON, ";"); // runs once, here
+                else ts.next();
 
-            String val = parseExpr();
-            expect(TokenType.SEMICOLON, ";");
+                int body = newLabel(), test = NONE;
+                ListSink cond = new ListSink(), update = new ListSink();
+                if (peekType() != Scanner.TokenType.SEMICOLON) 
+                {
+                    test = newLabel();
+                    out = cond;
+                    emitTest(parseCondition(), body);
+                }
+                out = sink;
+                expect(Scanner.TokenType.SEMICOLON, ";");
+                if (peekType() != Scanner.TokenType.RPAREN) 
+                {
+                    out = update;
+                    parseAssignment(Scanner.TokenType.RPAREN, ")");
+                    out = sink;
+                } 
+                else 
+                {
+                    ts.next();
+                }
+                openLoop(body, test, update.atoms, cond.atoms);
+                return;
+            }
+
+            parseAssignment(Scanner.TokenType.SEMICOLON, ";");
+        }
+
+
+        // lhs = expr, then the token that ends it (; or the ) of a for header)
+        private void parseAssignment(Scanner.TokenType end, String human) throws IOException 
+        {
+            int lhs = expect(Scanner.TokenType.IDENTIFIER, "assignment LHS identifier").sym;
+            expect(Scanner.TokenType.ASSIGN, "=");
+
+            int val = parseExpr();
+            expect(end, human);
             
-            code.add(new Atom(OpCode.MOV, val, null, lhs));
+            emit(atom(OpCode.MOV, val, NONE, lhs));
+            release(val);
+        }
+
+
+        // loops 
+
+        // Loops are rotated so the test sits at the bottom: one jump in to the test, then every
+        // pass runs the body, the update and a single TST back to the top of the body.
+        //
+        //          JMP $test           (left out when there is no test)
+        //   $body: body
+        //          update
+        //   $test: condition, TST $body (a JMP $body when there is no test)
+        //
+        // The test and update are parsed before the body but their atoms are held until the
+        // loop's closing brace. Their temps are released as usual: nothing is live across a
+        // statement, so the body may reuse the same temps.
+        private void openLoop(int body, int test, List<Atom> update, List<Atom> cond) throws IOException 
+        {
+            expect(Scanner.TokenType.LBRACE, "{");
+            List<Atom> bottom = new ArrayList<>(update);
+            if (test == NONE) 
+            {
+                bottom.add(atom(OpCode.JMP, NONE, NONE, NONE, null, body));
+            } 
+            else 
+            {
+                emit(atom(OpCode.JMP, NONE, NONE, NONE, null, test));
+                bottom.add(atom(OpCode.LBL, NONE, NONE, NONE, null, test));
+                bottom.addAll(cond);
+            }
+            emit(atom(OpCode.LBL, NONE, NONE, NONE, null, body));
+            blocks.add(bottom);
+        }
+
+        // Generated labels start with $, which no identifier can
+        private int newLabel() 
+        {
+            return symbols.intern("$L" + (++labelCounter));
+        }
+
+        private void emitTest(Cond c, int dest) throws IOException 
+        {
+            emit(atom(OpCode.TST, c.left, c.right, NONE, c.cmpCode, dest));
+            release(c.left);
+            release(c.right);
         }
 
 
         // conditions 
         static class Cond 
         {
-            final String left, right;
+            final int left, right;
             final int cmpCode;
 
-            Cond(String l,String r,int c)
+            Cond(int l,int r,int c)
             {
                 left=l;
                 right=r;
@@ -320,8 +1007,8 @@ static class ScannerAdapter implements TokenSource
 
         private Cond parseCondition() throws IOException 
         {
-            String left = parseExpr();
-            TokenType op = peekType();
+            int left = parseExpr();
+            Scanner.TokenType op = peekType();
             int code;
 
             switch (op) 
@@ -334,75 +1021,315 @@ static class ScannerAdapter implements TokenSource
                 case NE -> { ts.next(); code = 6; }
                 default -> throw error("expected comparison operator");
             }
-            String right = parseExpr();
+            int right = parseExpr();
             return new Cond(left, right, code);
         }
 
 
         // Expressions
-        private String parseExpr() throws IOException 
+        //   expr   -> term { (+|-) term }
+        //   term   -> factor { (*|/) factor }
+        //   factor -> literal | identifier | ( expr ) | - factor
+        // Parsed by precedence climbing over explicit stacks rather than one call per level, so
+        // deeply nested parentheses and long runs of unary minus cannot overflow the thread
+        // stack. Each atom is emitted at the same point the recursive descent would emit it,
+        // so the atoms and temp numbers are the same.
+        //
+        // Operators whose operands are all integer constants (int literals, char literals via
+        // mapLexeme, or earlier folds) are computed here with int arithmetic, like the target
+        // machine, and stand for the number symbol of the result: no atom and no temp for them.
+
+        // Pending operators, innermost on top
+        private static final int PAREN = 0, NEG = 1, ADD = 2, SUB = 3, MUL = 4, DIV = 5;
+
+        private int[] ops = new int[16];
+        private int opTop;
+        private int[] vals = new int[16];
+        private int valTop;
+
+        private int parseExpr() throws IOException 
         {
-            String left = parseTerm();
-
-            while (peekType() == TokenType.PLUS || peekType() == TokenType.MINUS) 
+            int opBase = opTop, valBase = valTop, parens = 0;
+            while (true) 
             {
-                TokenType op = ts.next().type;
-                String right = parseTerm();
-                String t = newTemp();
-                code.add(new Atom(op == TokenType.PLUS ? OpCode.ADD : OpCode.SUB, left, right, t));
-                left = t;
+                // operand: any number of unary minuses and open parentheses, then a literal or identifier
+                Token t = ts.next();
+                switch (t.type) 
+                {
+                    case MINUS -> { pushOp(NEG); continue; }
+                    case LPAREN -> { pushOp(PAREN); parens++; continue; }
+                    case INT_LITERAL, FLOAT_LITERAL, CHAR_LITERAL, IDENTIFIER -> pushVal(treeIR ? leaf(t.sym) : t.sym);
+                    default -> throw errorAt(t, "unexpected token in expression: " + t.type);
+                }
+
+                // a complete factor: apply its minuses, then close parentheses until an operator follows
+                while (true) 
+                {
+                    while (opTop > opBase && ops[opTop - 1] == NEG) reduce();
+
+                    int op = binaryOp(peekType());
+                    if (op >= 0) 
+                    {
+                        while (opTop > opBase && precedence(ops[opTop - 1]) >= precedence(op)) reduce();
+                        ts.next();
+                        pushOp(op);
+                        break;
+                    }
+                    if (parens == 0) 
+                    {
+                        while (opTop > opBase) reduce();
+                        valTop = valBase;
+                        return treeIR ? linearize(vals[valBase]) : vals[valBase];
+                    }
+                    while (ops[opTop - 1] != PAREN) reduce();
+                    expect(Scanner.TokenType.RPAREN, ")");
+                    opTop--;
+                    parens--;
+                }
             }
+        }
+
+        private static int binaryOp(Scanner.TokenType type) 
+        {
+            return switch (type) 
+            {
+                case PLUS -> ADD;
+                case MINUS -> SUB;
+                case STAR -> MUL;
+                case SLASH -> DIV;
+                default -> -1;
+            };
+        }
 
-            return left;
+        // An open parenthesis binds loosest, so operators are never reduced past it
+        private static int precedence(int op) 
+        {
+            return switch (op) 
+            {
+                case MUL, DIV -> 2;
+                case ADD, SUB -> 1;
+                default -> 0;
+            };
         }
 
+        // Pop the top operator with its operands and fold it, emit its atom, or (tree IR) make
+        // it a node; the constant, temp or node becomes an operand
+        private void reduce() throws IOException 
+        {
+            int op = ops[--opTop];
+            int right = (op == NEG) ? NONE : vals[--valTop];
+            int left = vals[valTop - 1];
+            vals[valTop - 1] = treeIR ? node(op, left, right) : apply(op, left, right);
+        }
 
-        private String parseTerm() throws IOException 
+        // Result symbol of op on the operand symbols: a folded constant or a new temp
+        private int apply(int op, int left, int right) throws IOException 
         {
-            String left = parseFactor();
+            int c = fold(op, left, right);
+            if (c != NONE) return c;
+            release(left);
+            release(right);
+            int t = newTemp();
+            emit(atom(opCode(op), left, op == NEG ? NONE : right, t));
+            return t;
+        }
+
+        private int fold(int op, int left, int right) 
+        {
+            return Parser.fold(symbols, opCode(op), left, right);
+        }
 
-            while (peekType() == TokenType.STAR || peekType() == TokenType.SLASH) 
+        private static OpCode opCode(int op) 
+        {
+            return switch (op) 
             {
-                TokenType op = ts.next().type;
-                String right = parseFactor();
-                String t = newTemp();
-                code.add(new Atom(op == TokenType.STAR ? OpCode.MUL : OpCode.DIV, left, right, t));
-                left = t;
+                case NEG -> OpCode.NEG;
+                case ADD -> OpCode.ADD;
+                case SUB -> OpCode.SUB;
+                case MUL -> OpCode.MUL;
+                default -> OpCode.DIV;
+            };
+        }
+
+        private void pushOp(int op) 
+        {
+            if (opTop == ops.length) ops = Arrays.copyOf(ops, opTop * 2);
+            ops[opTop++] = op;
+        }
+
+        private void pushVal(int v) 
+        {
+            if (valTop == vals.length) vals = Arrays.copyOf(vals, valTop * 2);
+            vals[valTop++] = v;
+        }
+
+
+        // Tree IR (optional): the expression is built as a tree first, every node labeled with
+        // the most temps its evaluation holds at once (Sethi-Ullman), and then linearized
+        // evaluating the more demanding operand first. Operand order within each atom is kept,
+        // only the order atoms are emitted in changes, which is safe as expressions have no side
+        // effects. Nodes are flat arrays reset per expression; leaves have op LEAF and their
+        // symbol in nodeVal, which for an operator node holds its temp once emitted.
+        private static final int LEAF = -1;
+
+        private int[] nodeOp = new int[16], nodeLeft = new int[16], nodeRight = new int[16];
+        private int[] nodeVal = new int[16], nodeNeed = new int[16];
+        private int nodes;
+        private int[] walk = new int[16];
+
+        private int leaf(int sym) 
+        {
+            return newNode(LEAF, NONE, NONE, sym, 0);
+        }
+
+        // Children are always made before their parent, so their labels are final here
+        private int node(int op, int left, int right) 
+        {
+            if (nodeOp[left] == LEAF && (op == NEG || nodeOp[right] == LEAF)) 
+            {
+                int c = fold(op, nodeVal[left], op == NEG ? NONE : nodeVal[right]);
+                if (c != NONE) 
+                {
+                    nodeVal[left] = c;
+                    return left;
+                }
+            }
+            int need;
+            if (op == NEG) 
+            {
+                need = Math.max(nodeNeed[left], 1);
+            } 
+            else 
+            {
+                int l = nodeNeed[left], r = nodeNeed[right];
+                need = Math.max(Math.min(Math.max(l, held(left) + r), Math.max(r, held(right) + l)), 1);
             }
+            return newNode(op, left, right, NONE, need);
+        }
 
-            return left;
+        // Temps an evaluated operand keeps live: one unless it is a plain symbol
+        private int held(int n) 
+        {
+            return nodeOp[n] == LEAF ? 0 : 1;
         }
 
+        // Right operand first only when that needs fewer temps at once; ties keep source order
+        private boolean rightFirst(int n) 
+        {
+            int l = nodeLeft[n], r = nodeRight[n];
+            return Math.max(nodeNeed[r], held(r) + nodeNeed[l]) < Math.max(nodeNeed[l], held(l) + nodeNeed[r]);
+        }
 
-        private String parseFactor() throws IOException 
+        // Emit the tree's atoms in post-order without recursion: a node index on the walk stack
+        // means visit it, its complement means both operands are done and it can be emitted
+        private int linearize(int root) throws IOException 
         {
-            Token t = ts.peek();
-            switch (t.type) 
+            int top = 0;
+            walk[top++] = root;
+            while (top > 0) 
+            {
+                int n = walk[--top];
+                if (n < 0) 
+                {
+                    n = ~n;
+                    int right = nodeOp[n] == NEG ? NONE : nodeVal[nodeRight[n]];
+                    nodeVal[n] = apply(nodeOp[n], nodeVal[nodeLeft[n]], right);
+                    continue;
+                }
+                if (nodeOp[n] == LEAF) continue;
+                if (top + 3 > walk.length) walk = Arrays.copyOf(walk, walk.length * 2 + 3);
+                walk[top++] = ~n;
+                if (nodeOp[n] == NEG) 
+                {
+                    walk[top++] = nodeLeft[n];
+                } 
+                else if (rightFirst(n)) 
+                {
+                    walk[top++] = nodeLeft[n];
+                    walk[top++] = nodeRight[n];
+                } 
+                else 
+                {
+                    walk[top++] = nodeRight[n];
+                    walk[top++] = nodeLeft[n];
+                }
+            }
+            int result = nodeVal[root];
+            nodes = 0;
+            return result;
+        }
+
+        private int newNode(int op, int left, int right, int val, int need) 
+        {
+            if (nodes == nodeOp.length) 
             {
-                case INT_LITERAL, FLOAT_LITERAL -> { ts.next(); return t.lexeme; }
-                case IDENTIFIER -> { ts.next(); return t.lexeme; }
-                case LPAREN -> { ts.next(); String v = parseExpr(); expect(TokenType.RPAREN, ")"); return v; }
-                case MINUS -> { ts.next(); String v = parseFactor(); String tmp = newTemp(); code.add(new Atom(OpCode.NEG, v, null, tmp)); return tmp; }
-                default -> throw errorAt(t, "unexpected token in expression: " + t.type);
+                int n = nodes * 2;
+                nodeOp = Arrays.copyOf(nodeOp, n);
+                nodeLeft = Arrays.copyOf(nodeLeft, n);
+                nodeRight = Arrays.copyOf(nodeRight, n);
+                nodeVal = Arrays.copyOf(nodeVal, n);
+                nodeNeed = Arrays.copyOf(nodeNeed, n);
             }
+            nodeOp[nodes] = op;
+            nodeLeft[nodes] = left;
+            nodeRight[nodes] = right;
+            nodeVal[nodes] = val;
+            nodeNeed[nodes] = need;
+            return nodes++;
         }
 
 
         // helpers
-        private String newTemp() 
+
+        // Lowest free temp number, or a new one. Every temp is used exactly once, by the atom
+        // that consumes it, so an atom's result may reuse one of its own operands' temps.
+        private int newTemp() 
         { 
-            return "t" + (++tempCounter); 
+            int n = freeTemps.nextSetBit(0);
+            if (n < 0) return symbols.temp(++tempCounter);
+            freeTemps.clear(n);
+            return symbols.temp(n);
         }
 
+        private void release(int sym) 
+        {
+            if (symbols.isTemp(sym)) freeTemps.set(SymbolTable.tempNumber(sym));
+        }
 
-        private boolean isKeyword(String k) throws IOException 
+        // Distinct temps used so far
+        int tempCount() 
         {
-            Token t = ts.peek();
-            return (t.type == TokenType.KEYWORD || t.type == TokenType.IDENTIFIER) && k.equals(t.lexeme);
+            return tempCounter;
         }
 
 
-        private Token expect(TokenType type, String human) throws IOException 
+        private static final int NONE = SymbolTable.NONE;
+
+        private void emit(Atom a) throws IOException 
+        {
+            out.emit(a);
+            if (out == sink) emitted++; // held loop atoms are counted when they reach sink
+        }
+
+        private Atom atom(OpCode op, int left, int right, int result) 
+        {
+            return new Atom(symbols, op, left, right, result);
+        }
+
+
+        private Atom atom(OpCode op, int left, int right, int result, Integer cmp, int dest) 
+        {
+            return new Atom(symbols, op, left, right, result, cmp, dest);
+        }
+
+
+        private boolean isKeyword(int k) throws IOException 
+        {
+            return ts.peek().keyword == k;
+        }
+
+
+        private Token expect(Scanner.TokenType type, String human) throws IOException 
         {
             Token t = ts.next();
 
@@ -419,28 +1346,74 @@ static class ScannerAdapter implements TokenSource
 
         private RuntimeException errorAt(Token t, String msg) 
         {
-            return new RuntimeException("Parse error at "+t.line+":"+t.col+": "+msg); 
+            return new RuntimeException("Parse error at "+ts.position(t)+": "+msg); 
         }
     }
 
 
 
+    // Tokens of a program file, or of stdin when file is null. Files are memory-mapped and
+    // scanned a batch of tokens at a time; stdin goes through the Reader path. Included files
+    // are read through the on-disk token cache when useCache is set.
+    static TokenSource open(Path file, boolean useCache) throws IOException 
+    {
+        TokenSource main = (file != null)
+                ? new TokenBufferSource(Scanner.ScannerEngine.forFile(file))
+                : new ScannerAdapter(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        return new IncludeSource(main, file, useCache ? new Scanner.TokenCache() : null);
+    }
+
+
     // Main
     public static void main(String[] args) throws Exception 
     {
-        Reader reader = (args.length > 0)
-                ? new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)
-                : new InputStreamReader(System.in, StandardCharsets.UTF_8);
+        // Usage: java Parser [--no-token-cache] [--tree-ir] [--optimize] [--atb=atoms.atb] [file]
+        Path file = null;
+        Path atb = null;
+        boolean useCache = true;
+        boolean treeIR = false;
+        boolean optimize = false;
+        for (String a : args) 
+        {
+            if (a.equals("--no-token-cache")) useCache = false;
+            else if (a.equals("--tree-ir")) treeIR = true;
+            else if (a.equals("--optimize")) optimize = true;
+            else if (a.startsWith("--atb=")) atb = Paths.get(a.substring("--atb=".length()));
+            else file = Paths.get(a);
+        }
+        TokenSource ts = open(file, useCache);
 
-        // Swap SimpleScanner with an adapter to your Phase 1 scanner if desired.
-        TokenSource ts = new ScannerAdapter(reader);
-        RDParser p = new RDParser(ts);
-        List<Atom> atoms = p.parseProgram();
+        // Binary atom file instead of text (see AtomFile)
+        if (atb != null) 
+        {
+            AtomFile.Writer w = new AtomFile.Writer(atb, ts.symbols());
+            boolean written = false;
+            try 
+            {
+                new RDParser(ts, treeIR).parseProgram(optimize ? new Optimizer(ts.symbols(), w) : w);
+                written = true;
+            } 
+            finally 
+            {
+                if (!written) w.abort(); // no half-written file after a scan or parse error
+            }
+            return;
+        }
 
-        // Output atoms to STDOUT, one per line
-        for (Atom a : atoms) 
+        // Output atoms to STDOUT, one per line, as they are produced, encoded as System.out would
+        Charset cs = TextSink.stdoutCharset();
+        AtomSink out = TextSink.supports(cs)
+                ? new TextSink(new FileOutputStream(FileDescriptor.out).getChannel(), ts.symbols(), cs)
+                : new PrintSink(System.out);
+        boolean written = false;
+        try 
+        {
+            new RDParser(ts, treeIR).parseProgram(optimize ? new Optimizer(ts.symbols(), out) : out); // ends out
+            written = true;
+        } 
+        finally 
         {
-            System.out.println(a);
+            if (!written) out.end(); // the atoms before a scan or parse error are still printed
         }
     }
 }
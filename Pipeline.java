@@ -0,0 +1,237 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+  CS410 – Pipelined compile
+
+  Author(s):
+  Reviewer:
+
+  Runs the scanner and the parser on threads of their own while the calling
+  thread runs the code generator (or whatever AtomSink it is given), instead of
+  one phase after another. The scanner hands the parser batches of tokens and
+  the parser hands the sink batches of atoms, each through a bounded
+  single-producer/single-consumer Ring. Used batches go back through a second
+  ring, so a stage that gets ahead waits for a free batch: memory stays at a
+  fixed number of batches whatever the size of the input. The code generator
+  backpatches jumps to labels it has not seen yet, so it can take atoms as
+  they arrive.
+
+  On a single processor the stages simply run in turn on the calling thread.
+*/
+
+public class Pipeline {
+
+    static final int TOKEN_BATCHES = 8;  // of Parser.TokenBufferSource.BATCH tokens
+    static final int ATOM_BATCHES = 8;
+    static final int ATOM_BATCH = 1024;
+
+    /**
+     * Compile file (stdin when null) into sink, which is given every atom and then end() on
+     * the calling thread. symbols must be the table sink's atoms are read against; sink may
+     * read it but not intern into it, since the parser thread does. With optimize the atoms go
+     * through an Optimizer first, on the parser's thread as it interns folded constants. A scan
+     * or parse error is rethrown here as it was thrown, after the atoms made before it.
+     */
+    public static void compile(Path file, SymbolTable symbols, boolean useCache, boolean treeIR,
+            boolean optimize, Parser.AtomSink sink) throws IOException {
+        Scanner.ScannerEngine eng = (file != null) ? Scanner.ScannerEngine.forFile(file)
+                : new Scanner.ScannerEngine(System.in.readAllBytes());
+        Scanner.TokenCache cache = useCache ? new Scanner.TokenCache() : null;
+
+        if (Runtime.getRuntime().availableProcessors() < 2) {
+            Parser.TokenSource ts = new Parser.IncludeSource(new Parser.TokenBufferSource(eng, symbols), file, cache);
+            new Parser.RDParser(ts, treeIR).parseProgram(optimize ? new Optimizer(symbols, sink) : sink);
+            return;
+        }
+        new Pipeline().run(eng, file, symbols, cache, treeIR, optimize, sink);
+    }
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final Ring<Scanner.TokenBuffer> tokens = new Ring<>(TOKEN_BATCHES);
+    private final Ring<Scanner.TokenBuffer> freeTokens = new Ring<>(TOKEN_BATCHES);
+    private final Ring<Parser.Atom[]> atoms = new Ring<>(ATOM_BATCHES);
+    private final Ring<Parser.Atom[]> freeAtoms = new Ring<>(ATOM_BATCHES);
+
+    private void run(Scanner.ScannerEngine eng, Path file, SymbolTable symbols, Scanner.TokenCache cache,
+            boolean treeIR, boolean optimize, Parser.AtomSink sink) throws IOException {
+        // one buffer starts out with the parser, empty, the rest wait for the scanner
+        Scanner.TokenBuffer first = new Scanner.TokenBuffer(eng.source(), Parser.TokenBufferSource.BATCH);
+        for (int i = 1; i < TOKEN_BATCHES; i++) {
+            freeTokens.put(new Scanner.TokenBuffer(eng.source(), Parser.TokenBufferSource.BATCH));
+        }
+        for (int i = 0; i < ATOM_BATCHES; i++) freeAtoms.put(new Parser.Atom[ATOM_BATCH]);
+
+        Thread scanner = start("scanner", () -> {
+            while (true) {
+                Scanner.TokenBuffer b = freeTokens.take();
+                b.clear();
+                eng.scanSome(b, Parser.TokenBufferSource.BATCH);
+                tokens.put(b);
+                if (b.type(b.size() - 1) == Scanner.TokenType.EOF) break;
+            }
+            tokens.close();
+        });
+
+        Thread parser = start("parser", () -> {
+            Parser.TokenSource ts = new Parser.IncludeSource(new Parser.TokenBufferSource(first, used -> {
+                freeTokens.put(used);
+                return tokens.take();
+            }, symbols, 0), file, cache);
+            AtomBatches out = new AtomBatches();
+            try {
+                new Parser.RDParser(ts, treeIR).parseProgram(optimize ? new Optimizer(symbols, out) : out);
+            } finally {
+                out.flush(); // atoms before a parse error still reach the sink
+            }
+        });
+
+        try {
+            Parser.Atom[] batch;
+            while ((batch = atoms.take()) != null) {
+                for (Parser.Atom a : batch) {
+                    if (a == null) break;
+                    sink.emit(a);
+                }
+                freeAtoms.put(batch);
+            }
+            if (failure.get() == null) sink.end();
+        } catch (Throwable e) {
+            fail(e);
+        }
+        join(scanner);
+        join(parser);
+
+        Throwable e = failure.get();
+        if (e instanceof IOException io) throw io;
+        if (e instanceof RuntimeException re) throw re;
+        if (e instanceof Error err) throw err;
+        if (e != null) throw new IOException(e);
+    }
+
+    // The parser's side: fills batches from freeAtoms, a null after the last atom of a short one
+    private class AtomBatches implements Parser.AtomSink {
+        private Parser.Atom[] batch;
+        private int n;
+
+        @Override
+        public void emit(Parser.Atom a) {
+            if (batch == null) batch = freeAtoms.take();
+            batch[n++] = a;
+            if (n == batch.length) flush();
+        }
+
+        @Override
+        public void end() {
+            flush();
+            atoms.close();
+        }
+
+        void flush() {
+            if (batch == null) return;
+            if (n < batch.length) batch[n] = null;
+            atoms.put(batch);
+            batch = null;
+            n = 0;
+        }
+    }
+
+    interface Stage { void run() throws Exception; }
+
+    private Thread start(String name, Stage stage) {
+        Thread t = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    // The first failure is the one reported; every ring stops so no stage waits forever
+    private void fail(Throwable e) {
+        failure.compareAndSet(null, e);
+        tokens.fail();
+        freeTokens.fail();
+        atoms.fail();
+        freeAtoms.fail();
+    }
+
+    private static void join(Thread t) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                t.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Bounded single-producer/single-consumer queue. One thread puts, one other thread takes;
+     * each index is only written by its own side, so no locks are needed. A side that has to
+     * wait spins briefly, then yields, then parks for short intervals. After close() a take()
+     * on the empty ring returns null; after fail() puts throw and takes throw once the ring is
+     * empty, both with CancellationException.
+     */
+    static final class Ring<T> {
+        private final Object[] items;
+        private final int mask;
+        private volatile long head; // next to take, written by the consumer
+        private volatile long tail; // next to put, written by the producer
+        private volatile boolean closed;
+        private volatile boolean failed;
+
+        Ring(int capacity) {
+            if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+            items = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        void put(T item) {
+            long t = tail;
+            for (int idle = 0; t - head == items.length || failed; idle++) pause(idle);
+            items[(int) t & mask] = item;
+            tail = t + 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        T take() {
+            long h = head;
+            for (int idle = 0; h == tail; idle++) {
+                if (closed && h == tail) return null;
+                pause(idle);
+            }
+            int i = (int) h & mask;
+            T item = (T) items[i];
+            items[i] = null;
+            head = h + 1;
+            return item;
+        }
+
+        // No more puts
+        void close() {
+            closed = true;
+        }
+
+        void fail() {
+            failed = true;
+        }
+
+        private void pause(int idle) {
+            if (failed) throw new CancellationException("pipeline stopped");
+            if (idle < 64) Thread.onSpinWait();
+            else if (idle < 128) Thread.yield();
+            else LockSupport.parkNanos(50_000);
+        }
+    }
+}
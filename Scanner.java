@@ -1,6 +1,21 @@
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /*
   CS410 – Phase 1: Scanner
@@ -19,7 +34,7 @@ public class Scanner {
         // keywords & identifiers
         KEYWORD, IDENTIFIER,
         // literals
-        INT_LITERAL, FLOAT_LITERAL, CHAR_LITERAL,
+        INT_LITERAL, FLOAT_LITERAL, CHAR_LITERAL, STRING_LITERAL,
         // operators & punctuation
         ASSIGN, EQ, LT, GT, LE, GE, NE, NOT,
         PLUS, MINUS, STAR, SLASH, PERCENT,
@@ -32,19 +47,23 @@ public class Scanner {
     {
         final TokenType type;
         final String lexeme;
-        final int line;
-        final int col;
-        Token(TokenType type, String lexeme, int line, int col) 
+        final int offset;  // start in the input (UTF-8 bytes, or chars on the Reader path); see LineIndex
+        final int keyword; // Keywords id for KEYWORD tokens, else Keywords.NONE
+        Token(TokenType type, String lexeme, int offset) 
+        {
+            this(type, lexeme, offset, Keywords.NONE);
+        }
+        Token(TokenType type, String lexeme, int offset, int keyword) 
         {
             this.type = type;
             this.lexeme = lexeme;
-            this.line = line;
-            this.col = col;
+            this.offset = offset;
+            this.keyword = keyword;
         }
         @Override public String toString() 
         {
             switch (type) {
-                case IDENTIFIER, KEYWORD, INT_LITERAL, FLOAT_LITERAL, CHAR_LITERAL:
+                case IDENTIFIER, KEYWORD, INT_LITERAL, FLOAT_LITERAL, CHAR_LITERAL, STRING_LITERAL:
                     return type + "\t" + lexeme;
                 case EOF:
                     return "EOF";
@@ -54,8 +73,79 @@ public class Scanner {
         }
     }
 
+    // KEYWORDS
+    // Perfect hash on (length, first char, second char) into 32 slots, checked for collisions
+    // when the class loads. Matching works on the raw lexeme so no String is built for it.
+    static final class Keywords 
+    {
+        static final int NONE = -1;
+        static final int INCLUDE = 0, DEFINE = 1,
+                         CHAR = 2, SHORT = 3, INT = 4, LONG = 5, FLOAT = 6, DOUBLE = 7,
+                         FOR = 8, WHILE = 9, IF = 10, ELSE = 11, LABEL = 12, GOTO = 13;
+
+        private static final String[] NAMES = {
+                "include", "define",
+                "char", "short", "int", "long", "float", "double",
+                "for", "while", "if", "else", "label", "goto"
+        };
+        private static final byte[] SLOTS = new byte[32];
+
+        static {
+            Arrays.fill(SLOTS, (byte) NONE);
+            for (int id = 0; id < NAMES.length; id++) {
+                String k = NAMES[id];
+                int h = hash(k.length(), k.charAt(0), k.charAt(1));
+                if (SLOTS[h] != NONE) throw new IllegalStateException("keyword hash collision: " + k + " / " + NAMES[SLOTS[h]]);
+                SLOTS[h] = (byte) id;
+            }
+        }
+
+        private static int hash(int len, int c0, int c1) 
+        {
+            return (3 * len + c0 + c1) & 31;
+        }
+
+        static String name(int id) 
+        {
+            return NAMES[id];
+        }
+
+        // Keyword id of the UTF-8 bytes [start, start+len), or NONE
+        static int match(ByteBuffer buf, int start, int len) 
+        {
+            if (len < 2 || len > 7) return NONE;
+            int id = SLOTS[hash(len, buf.get(start), buf.get(start + 1))];
+            if (id == NONE) return NONE;
+            String k = NAMES[id];
+            if (k.length() != len) return NONE;
+            for (int i = 0; i < len; i++) {
+                if (buf.get(start + i) != k.charAt(i)) return NONE;
+            }
+            return id;
+        }
+
+        static int match(CharSequence s) 
+        {
+            int len = s.length();
+            if (len < 2 || len > 7) return NONE;
+            int id = SLOTS[hash(len, s.charAt(0), s.charAt(1))];
+            if (id == NONE) return NONE;
+            String k = NAMES[id];
+            if (k.length() != len) return NONE;
+            for (int i = 0; i < len; i++) {
+                if (s.charAt(i) != k.charAt(i)) return NONE;
+            }
+            return id;
+        }
+    }
+
     // SCANNER ENGINE 
-    public static class ScannerEngine {
+    // Iterating an engine pulls tokens on demand (single pass, ends with EOF)
+    public static class ScannerEngine implements Iterable<Token> {
+
+        // Version of the lexing rules below. Bump it with any change that splits or classifies
+        // some text differently, so token streams cached by an older build are not served.
+        static final int RULES_VERSION = 2;
 
         // Character classes (columns)
         static final int CC_LETTER = 0;
@@ -97,24 +187,112 @@ public class Scanner {
         static final int S_EOF     = 16;
         static final int STATE_COUNT = 17;
 
-        private final int[][] T = new int[STATE_COUNT][CLASS_COUNT];
-        private final PushbackReader in;
-        private int line = 1, col = 0;
-        private boolean deliveredEOF = false;
+        // Transition table, row-major by state: T[state * CLASS_COUNT + class]. It never
+        // changes, so it is built once and shared by every engine.
+        private static final int[] T = buildTransitions();
 
-        private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
-                "include", "define",
-                "char", "short", "int", "long", "float", "double",
-                "for", "while", "if", "else"
-        ));
+        // Reader path (fallback): null when scanning a buffer. Chars are read in blocks into
+        // rbuf (or taken straight from a CharSequence); pushback moves rpos back. rbase is the
+        // input offset of rbuf[0].
+        private Reader in;
+        private CharSequence chars;
+        private char[] rbuf;
+        private int rpos, rlen, rbase;
+
+        // Buffer path: UTF-8 source bytes and an integer cursor; null when scanning a Reader.
+        // Pushback is just moving the cursor back to where the last char started.
+        private ByteBuffer src;
+        private int pos, limit;
+        private int lastStart = -1, prevStart = -1; // start offsets of the last two chars read
+
+        // Positions are plain offsets; line:col is only worked out for diagnostics
+        private LineIndex lineIndex;
+        private boolean deliveredEOF = false;
+        private boolean endedInComment = false; // input ran out inside a block comment
 
         ScannerEngine(Reader reader) 
         {
-            this.in = new PushbackReader(new BufferedReader(reader), 4);
-            buildTransitions();
+            reset(reader);
+        }
+
+        ScannerEngine(CharSequence text) 
+        {
+            reset(text);
+        }
+
+        // Scan UTF-8 bytes between the buffer's position and limit (heap or memory-mapped)
+        ScannerEngine(ByteBuffer utf8) 
+        {
+            reset(utf8);
         }
 
-        private void buildTransitions() {
+        ScannerEngine(byte[] utf8) 
+        {
+            this(ByteBuffer.wrap(utf8));
+        }
+
+        // Scan only bytes [from, to) of the buffer; offsets stay absolute
+        ScannerEngine(ByteBuffer utf8, int from, int to) 
+        {
+            this(utf8);
+            this.pos = from;
+            this.limit = to;
+        }
+
+        // Point a (pooled) engine at new input and start over. The read buffer and
+        // lexeme builder are kept, so scanning many small files allocates nothing per file.
+        ScannerEngine reset(Reader reader) 
+        {
+            clear();
+            this.in = reader;
+            this.lineIndex = new LineIndex(0); // filled in block by block as the input is read
+            if (rbuf == null) rbuf = new char[READ_BLOCK];
+            return this;
+        }
+
+        ScannerEngine reset(CharSequence text) 
+        {
+            clear();
+            this.chars = text;
+            this.rlen = text.length();
+            return this;
+        }
+
+        ScannerEngine reset(ByteBuffer utf8) 
+        {
+            clear();
+            this.src = utf8;
+            this.pos = utf8.position();
+            this.limit = utf8.limit();
+            return this;
+        }
+
+        private void clear() 
+        {
+            in = null;
+            chars = null;
+            src = null;
+            rpos = rlen = rbase = 0;
+            pos = limit = 0;
+            lastStart = prevStart = -1;
+            lineIndex = null;
+            deliveredEOF = false;
+            endedInComment = false;
+        }
+
+        private static final int READ_BLOCK = 8192;
+        private static final int PUSHBACK = 4; // chars kept across a refill so unread() still works
+
+        // Memory-map a source file and scan it in place
+        static ScannerEngine forFile(Path path) throws IOException 
+        {
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new ScannerEngine(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+            }
+        }
+
+        private static int[] buildTransitions() {
+            int[][] T = new int[STATE_COUNT][CLASS_COUNT];
             for (int s = 0; s < STATE_COUNT; s++) Arrays.fill(T[s], -1);
 
             // START transitions
@@ -147,6 +325,9 @@ public class Scanner {
             // FLOAT  (require at least one digit after dot; we only stay in S_FLOAT on more digits)
             T[S_FLOAT][CC_DIGIT] = S_FLOAT;
 
+            int[] flat = new int[STATE_COUNT * CLASS_COUNT];
+            for (int s = 0; s < STATE_COUNT; s++) System.arraycopy(T[s], 0, flat, s * CLASS_COUNT, CLASS_COUNT);
+            return flat;
         }
 
         // Accepting states
@@ -162,16 +343,18 @@ public class Scanner {
             };
         }
 
-        private TokenType tokenTypeFor(int state, String lexeme) {
+        // first = first char of the lexeme, len = its length in chars
+        private TokenType tokenTypeFor(int state, int first, int len) {
             switch (state) {
                 case S_ID:
-                    return KEYWORDS.contains(lexeme) ? TokenType.KEYWORD : TokenType.IDENTIFIER;
+                    tokKeyword = (src == null) ? Keywords.match(text) : Keywords.match(src, tokStart, tokEnd - tokStart);
+                    return (tokKeyword != Keywords.NONE) ? TokenType.KEYWORD : TokenType.IDENTIFIER;
                 case S_INT:   return TokenType.INT_LITERAL;
                 case S_FLOAT: return TokenType.FLOAT_LITERAL;
                 case S_CHAR:  return TokenType.CHAR_LITERAL;
 
                 case S_OP_PMSS:
-                    switch (lexeme.charAt(0)) {
+                    switch (first) {
                         case '+': return TokenType.PLUS;
                         case '-': return TokenType.MINUS;
                         case '*': return TokenType.STAR;
@@ -187,13 +370,13 @@ public class Scanner {
                 case S_COMMA:  return TokenType.COMMA;
 
                 case S_OP_EQ:   // '=' or '=='
-                    if (lexeme.length() == 2) return TokenType.EQ;
+                    if (len == 2) return TokenType.EQ;
                     return TokenType.ASSIGN;
                 case S_OP_REL:  // '<' '>' '<=' '>='
-                    if (lexeme.length() == 2) return (lexeme.charAt(0) == '<') ? TokenType.LE : TokenType.GE;
-                    return (lexeme.charAt(0) == '<') ? TokenType.LT : TokenType.GT;
+                    if (len == 2) return (first == '<') ? TokenType.LE : TokenType.GE;
+                    return (first == '<') ? TokenType.LT : TokenType.GT;
                 case S_OP_BANG: // '!' or '!='
-                    return (lexeme.length() == 2) ? TokenType.NE : TokenType.NOT;
+                    return (len == 2) ? TokenType.NE : TokenType.NOT;
 
                 case S_EOF:   return TokenType.EOF;
                 case S_ERROR: return TokenType.ERROR;
@@ -204,17 +387,73 @@ public class Scanner {
         // I/O helpers
         private int read() throws IOException 
         {
-            int ch = in.read();
-            if (ch == -1) { deliveredEOF = true; return -1; }
-            if (ch == '\n') { line++; col = 0; } else { col++; }
+            int ch;
+            if (src != null) {
+                if (pos >= limit) { deliveredEOF = true; return -1; }
+                prevStart = lastStart;
+                lastStart = pos;
+                ch = src.get(pos++);
+                if (ch < 0) ch = decodeUtf8(ch & 0xFF);
+            } else {
+                if (rpos >= rlen && !fill()) { deliveredEOF = true; return -1; }
+                ch = (chars != null) ? chars.charAt(rpos++) : rbuf[rpos++];
+            }
             return ch;
         }
         private void unread(int ch) throws IOException 
         {
             if (ch == -1) return;
-            in.unread(ch);
-            if (ch == '\n') { line--; /* best effort */ }
-            else { col = Math.max(0, col - 1); }
+            deliveredEOF = false; // a lookahead may have hit EOF, but there is input left again
+            if (src != null) {
+                // lookahead never goes deeper than two chars, so two saved offsets are enough
+                pos = lastStart;
+                lastStart = prevStart;
+                prevStart = -1;
+            } else {
+                rpos--;
+            }
+        }
+
+        // Input offset of the next char to be read
+        private int offset() 
+        {
+            return (src != null) ? pos : rbase + rpos;
+        }
+
+        // Next block from the Reader, keeping the last few chars in front for pushback
+        private boolean fill() throws IOException 
+        {
+            if (in == null) return false;
+            int keep = Math.min(PUSHBACK, rlen);
+            System.arraycopy(rbuf, rlen - keep, rbuf, 0, keep);
+            rbase += rlen - keep;
+            int n = in.read(rbuf, keep, rbuf.length - keep);
+            while (n == 0) n = in.read(rbuf, keep, rbuf.length - keep);
+            rpos = keep;
+            rlen = keep + Math.max(n, 0);
+            // the chars are gone once the block is reused, so note line starts now
+            for (int i = keep; i < rlen; i++) {
+                if (rbuf[i] == '\n') lineIndex.add(rbase + i + 1);
+            }
+            return n > 0;
+        }
+
+        // Multi-byte UTF-8 sequence whose lead byte has been consumed; malformed input yields U+FFFD
+        private int decodeUtf8(int b0) 
+        {
+            int n, cp;
+            if ((b0 & 0xE0) == 0xC0) { n = 1; cp = b0 & 0x1F; }
+            else if ((b0 & 0xF0) == 0xE0) { n = 2; cp = b0 & 0x0F; }
+            else if ((b0 & 0xF8) == 0xF0) { n = 3; cp = b0 & 0x07; }
+            else return 0xFFFD;
+            for (int i = 0; i < n; i++) {
+                if (pos >= limit) return 0xFFFD;
+                int b = src.get(pos);
+                if ((b & 0xC0) != 0x80) return 0xFFFD;
+                cp = (cp << 6) | (b & 0x3F);
+                pos++;
+            }
+            return cp;
         }
 
         private boolean isWS(int ch) { return ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n'; }
@@ -222,6 +461,7 @@ public class Scanner {
         // Skip whitespace and comments; returns first non-ws char (already read) or -1
         private int skipSpaceAndComments() throws IOException {
             while (true) {
+                if (src != null) skipSpaceFast();
                 int ch = read();
                 if (ch == -1) return -1;
 
@@ -236,18 +476,14 @@ public class Scanner {
                     int la = read();
                     if (la == '/') {
                         // line comment
+                        if (src != null) skipLineCommentFast();
                         while (true) {
                             int c = read();
                             if (c == -1 || c == '\n') break;
                         }
                         continue; // restart outer loop
                     } else if (la == '*') {
-                        // block comment
-                        int prev = 0, cur;
-                        while ((cur = read()) != -1) {
-                            if (prev == '*' && cur == '/') break;
-                            prev = cur;
-                        }
+                        skipBlockComment();
                         continue;
                     } else {
                         // not a comment; push back lookahead and treat '/' as token
@@ -261,71 +497,190 @@ public class Scanner {
             }
         }
 
-        private int classify(int ch) {
+        // Consume a block comment body up to and including "*/"; running into EOF instead is
+        // remembered so a chunked scan can tell its next chunk starts inside the comment
+        private void skipBlockComment() throws IOException {
+            if (src != null && skipBlockCommentFast()) return;
+            int prev = 0, cur;
+            while ((cur = read()) != -1) {
+                if (prev == '*' && cur == '/') return;
+                prev = cur;
+            }
+            endedInComment = true;
+        }
+
+        // Buffer path fast skips: move pos a word (8 bytes) at a time to the next byte that
+        // matters. Bytes of a multi-byte UTF-8 char are all >= 0x80, so they can never be
+        // mistaken for '\n', '*' or '/' and are stepped over without decoding. The slow loops
+        // finish the job at EOF.
+
+        // Whitespace up to the next non-blank byte
+        private void skipSpaceFast() throws IOException {
+            int p = pos;
+            while (p + 8 <= limit && allSpace(src.getLong(p))) p += 8;
+            while (p < limit && isWS(src.get(p))) p++;
+            pos = p;
+        }
+
+        // Line comment body up to (not including) its '\n'
+        private void skipLineCommentFast() throws IOException {
+            int p = pos;
+            while (p + 8 <= limit && bytesEqual(src.getLong(p), NEWLINES) == 0) p += 8;
+            while (p < limit && src.get(p) != '\n') p++;
+            pos = p;
+        }
+
+        // Block comment body through its "*/"; false if the buffer ends first
+        private boolean skipBlockCommentFast() throws IOException {
+            int p = pos;
+            while (true) {
+                while (p + 8 <= limit && bytesEqual(src.getLong(p), STARS) == 0) p += 8;
+                if (p >= limit) break;
+                if (src.get(p) == '*' && p + 1 < limit && src.get(p + 1) == '/') {
+                    pos = p + 2;
+                    return true;
+                }
+                p++;
+            }
+            pos = p;
+            return false;
+        }
+
+        private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+        private static final long HIGH_BITS = 0x8080808080808080L;
+        private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+        private static final long STARS = 0x2A2A2A2A2A2A2A2AL;
+        private static final long SPACES = 0x2020202020202020L;
+        private static final long TABS = 0x0909090909090909L;
+        private static final long CRS = 0x0D0D0D0D0D0D0D0DL;
+
+        // High bit set in every byte of w equal to the matching byte of pattern. Exact per byte
+        // (no borrow between lanes), so it does not depend on the buffer's byte order.
+        private static long bytesEqual(long w, long pattern) {
+            long x = w ^ pattern;
+            return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+        }
+
+        private static boolean allSpace(long w) {
+            return (bytesEqual(w, SPACES) | bytesEqual(w, NEWLINES) | bytesEqual(w, TABS) | bytesEqual(w, CRS)) == HIGH_BITS;
+        }
+
+        // Start scanning as if a "/*" had been read just before the current position
+        void resumeInBlockComment() throws IOException {
+            skipBlockComment();
+        }
+
+        // Character class of every ASCII code point; anything above 127 takes the slow path
+        private static final byte[] ASCII_CLASS = new byte[128];
+        static {
+            Arrays.fill(ASCII_CLASS, (byte) CC_OTHER);
+            for (char c = 'a'; c <= 'z'; c++) ASCII_CLASS[c] = CC_LETTER;
+            for (char c = 'A'; c <= 'Z'; c++) ASCII_CLASS[c] = CC_LETTER;
+            for (char c = '0'; c <= '9'; c++) ASCII_CLASS[c] = CC_DIGIT;
+            ASCII_CLASS['_'] = CC_UNDERSCORE;
+            ASCII_CLASS['.'] = CC_DOT;
+            ASCII_CLASS[' '] = ASCII_CLASS['\t'] = ASCII_CLASS['\r'] = ASCII_CLASS['\n'] = CC_WS;
+            ASCII_CLASS['='] = ASCII_CLASS['!'] = ASCII_CLASS['<'] = ASCII_CLASS['>'] = CC_EQ_BANG_LT_GT;
+            ASCII_CLASS['+'] = ASCII_CLASS['-'] = ASCII_CLASS['*'] = ASCII_CLASS['/'] = CC_PLUS_MINUS_STAR_SLASH;
+            ASCII_CLASS['('] = CC_LPAREN;
+            ASCII_CLASS[')'] = CC_RPAREN;
+            ASCII_CLASS[';'] = CC_SEMI;
+            ASCII_CLASS['{'] = CC_LBRACE;
+            ASCII_CLASS['}'] = CC_RBRACE;
+            ASCII_CLASS[','] = CC_COMMA;
+            ASCII_CLASS['#'] = CC_HASH;
+            ASCII_CLASS['\''] = CC_SQUOTE;
+        }
+
+        static int classify(int ch) {
+            if (ch >= 0 && ch < 128) return ASCII_CLASS[ch];
             if (ch == -1) return CC_EOF;
-            char c = (char) ch;
-            if (c == '\n' || c == '\r' || c == '\t' || c == ' ') return CC_WS;
-            if (c == '_') return CC_UNDERSCORE;
-            if (Character.isLetter(c)) return CC_LETTER;
-            if (Character.isDigit(c)) return CC_DIGIT;
-            if (c == '.') return CC_DOT;
-            if (c == '=' || c == '!' || c == '<' || c == '>') return CC_EQ_BANG_LT_GT;
-            if (c == '+' || c == '-' || c == '*' || c == '/') return CC_PLUS_MINUS_STAR_SLASH;
-            if (c == '(') return CC_LPAREN;
-            if (c == ')') return CC_RPAREN;
-            if (c == ';') return CC_SEMI;
-            if (c == '{') return CC_LBRACE;
-            if (c == '}') return CC_RBRACE;
-            if (c == ',') return CC_COMMA;
-            if (c == '#') return CC_HASH;
-            if (c == '\'') return CC_SQUOTE;
+            // non-ASCII: letters and digits from any script, everything else is an error
+            if (Character.isLetter(ch)) return CC_LETTER;
+            if (Character.isDigit(ch)) return CC_DIGIT;
             return CC_OTHER;
         }
 
         //  Core scanning 
-        Token nextToken() throws IOException {
-            if (deliveredEOF) return new Token(TokenType.EOF, "", line, col);
+
+        // Result of the last scan(): kind and lexeme extent [tokStart, tokEnd) in the input.
+        // On the Reader path the lexeme text is kept in a reused builder instead.
+        private TokenType tokType;
+        private int tokStart, tokEnd;
+        private int tokKeyword;
+        private final StringBuilder text = new StringBuilder();
+
+        // Append a consumed char to the current lexeme
+        private void keep(int ch) {
+            if (src == null) text.appendCodePoint(ch);
+            else tokEnd = pos;
+        }
+
+        private String lexemeString() {
+            return (src == null) ? text.toString() : decode(src, tokStart, tokEnd - tokStart);
+        }
+
+        // Scan one token into tokType/tokStart/tokEnd without allocating
+        private void scan() throws IOException {
+            text.setLength(0);
+            tokKeyword = Keywords.NONE;
+            if (deliveredEOF) { finish(TokenType.EOF, offset()); return; }
 
             int first = skipSpaceAndComments();
             int chClass = classify(first);
 
-            int tokStartLine = line;
-            int tokStartCol = Math.max(1, col); // first is already consumed by skipSpaceAndComments/read()
-
-            if (chClass == CC_EOF) return new Token(TokenType.EOF, "", tokStartLine, tokStartCol);
+            if (chClass == CC_EOF) { finish(TokenType.EOF, offset()); return; }
+            // first is already consumed by skipSpaceAndComments/read()
+            tokStart = (src != null) ? lastStart : rbase + rpos - 1;
+            keep(first);
+            int len = 1;
 
             // Char literal: 'x'
             if (first == '\'') {
-                StringBuilder sb = new StringBuilder();
-                sb.append('\'');
                 int c = read();
                 if (c == -1 || c == '\n' || c == '\r' || c == '\'') {
                     // invalid char literal
                     if (c != -1) unread(c);
-                    return new Token(TokenType.ERROR, sb.toString(), tokStartLine, tokStartCol);
+                    finish(TokenType.ERROR, tokStart);
+                    return;
                 }
-                sb.append((char)c);
+                keep(c);
                 int close = read();
                 if (close != '\'') {
                     if (close != -1) unread(close);
-                    return new Token(TokenType.ERROR, sb.toString(), tokStartLine, tokStartCol);
+                    finish(TokenType.ERROR, tokStart);
+                    return;
                 }
-                sb.append('\'');
-                return new Token(TokenType.CHAR_LITERAL, sb.toString(), tokStartLine, tokStartCol);
+                keep(close);
+                finish(TokenType.CHAR_LITERAL, tokStart);
+                return;
+            }
+
+            // String literal: "..." on one line, no escapes (include file names)
+            if (first == '"') {
+                int c;
+                while ((c = read()) != '"') {
+                    if (c == -1 || c == '\n' || c == '\r') {
+                        // unterminated: the error covers everything up to the line end
+                        if (c != -1) unread(c);
+                        finish(TokenType.ERROR, tokStart);
+                        return;
+                    }
+                    keep(c);
+                }
+                keep(c);
+                finish(TokenType.STRING_LITERAL, tokStart);
+                return;
             }
 
             // Resolve first state
-            int state = T[S_START][chClass];
+            int state = T[S_START * CLASS_COUNT + chClass];
             if (state == -1) state = S_ERROR;
 
-            StringBuilder lexeme = new StringBuilder();
-            lexeme.append((char) first);
-
             // Specialize operator families
             if (state == S_OP_EQ || state == S_OP_BANG || state == S_OP_REL) {
-                char c0 = (char) first;
-                if (c0 == '<' || c0 == '>') state = S_OP_REL;
-                else if (c0 == '!') state = S_OP_BANG;
+                if (first == '<' || first == '>') state = S_OP_REL;
+                else if (first == '!') state = S_OP_BANG;
                 else state = S_OP_EQ; // '='
             }
 
@@ -335,7 +690,8 @@ public class Scanner {
                 if (state == S_OP_EQ || state == S_OP_REL || state == S_OP_BANG) {
                     int la = read();
                     if (la == '=') {
-                        lexeme.append('=');
+                        keep('=');
+                        len++;
                     } else {
                         unread(la);
                     }
@@ -349,9 +705,10 @@ public class Scanner {
                 if (state == S_INT && laClass == CC_DOT) {
                     // move to S_FLOAT but require next to be digit
                     int la2 = read();
-                    if (Character.isDigit((char)la2)) {
-                        lexeme.append('.');
-                        lexeme.append((char)la2);
+                    if (classify(la2) == CC_DIGIT) {
+                        keep('.');
+                        keep(la2);
+                        len += 2;
                         state = S_FLOAT;
                         continue; // keep consuming digits in S_FLOAT
                     } else {
@@ -362,22 +719,71 @@ public class Scanner {
                     }
                 }
 
-                int ns = (la == -1) ? -1 : T[state][laClass];
+                int ns = (la == -1) ? -1 : T[state * CLASS_COUNT + laClass];
 
                 if (ns == -1 || laClass == CC_WS || laClass == CC_EOF || laClass == CC_HASH) {
                     if (la != -1 && laClass != CC_WS && laClass != CC_EOF) unread(la);
                     break;
                 } else {
                     state = ns;
-                    lexeme.append((char) la);
+                    keep(la);
+                    len++;
                 }
             }
 
-            TokenType type = tokenTypeFor(state, lexeme.toString());
-            if (type == TokenType.ERROR) {
-                return new Token(TokenType.ERROR, lexeme.toString(), tokStartLine, tokStartCol);
+            finish(tokenTypeFor(state, first, len), tokStart);
+        }
+
+        private void finish(TokenType type, int start) {
+            tokType = type;
+            if (type == TokenType.EOF) tokEnd = start;
+            tokStart = start;
+        }
+
+        Token nextToken() throws IOException {
+            scan();
+            String lexeme = (tokType == TokenType.EOF) ? ""
+                    : (tokType == TokenType.KEYWORD) ? Keywords.name(tokKeyword)
+                    : lexemeString();
+            return new Token(tokType, lexeme, tokStart, tokKeyword);
+        }
+
+        // Lazy views over nextToken(): nothing is scanned until a token is asked for and only
+        // the current token is alive, so memory stays flat however large the input is.
+        // Scanner I/O errors surface as UncheckedIOException.
+        @Override public Iterator<Token> iterator() {
+            return Spliterators.iterator(spliterator());
+        }
+
+        @Override public Spliterator<Token> spliterator() {
+            return new TokenSpliterator();
+        }
+
+        Stream<Token> tokens() {
+            return StreamSupport.stream(spliterator(), false);
+        }
+
+        // Sequential only; ParallelScan is the way to split a buffer
+        private final class TokenSpliterator implements Spliterator<Token>
+        {
+            private boolean done;
+
+            @Override public boolean tryAdvance(Consumer<? super Token> action) {
+                if (done) return false;
+                Token t;
+                try {
+                    t = nextToken();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (t.type == TokenType.EOF) done = true;
+                action.accept(t);
+                return true;
             }
-            return new Token(type, lexeme.toString(), tokStartLine, tokStartCol);
+
+            @Override public Spliterator<Token> trySplit() { return null; }
+            @Override public long estimateSize() { return Long.MAX_VALUE; }
+            @Override public int characteristics() { return ORDERED | NONNULL | IMMUTABLE; }
         }
 
         List<Token> scanAll() throws IOException {
@@ -389,19 +795,774 @@ public class Scanner {
             }
             return out;
         }
+
+        // Scan everything into a struct-of-arrays buffer; lexemes stay in the source bytes
+        TokenBuffer scanAll(TokenBuffer out) throws IOException {
+            if (src == null) throw new IllegalStateException("token buffer needs a byte buffer source");
+            while (true) {
+                scan();
+                out.add(tokType, tokKeyword, tokStart, tokEnd - tokStart);
+                if (tokType == TokenType.EOF) break;
+            }
+            return out;
+        }
+
+        // Append at most max more tokens to out, stopping after EOF; returns how many were added
+        int scanSome(TokenBuffer out, int max) throws IOException {
+            if (src == null) throw new IllegalStateException("token buffer needs a byte buffer source");
+            for (int n = 0; n < max; ) {
+                scan();
+                out.add(tokType, tokKeyword, tokStart, tokEnd - tokStart);
+                n++;
+                if (tokType == TokenType.EOF) return n;
+            }
+            return max;
+        }
+
+        TokenBuffer scanAllBuffered() throws IOException {
+            if (src == null) throw new IllegalStateException("token buffer needs a byte buffer source");
+            return scanAll(new TokenBuffer(src));
+        }
+
+        // Line starts of the input, for turning token offsets into line:col. Buffers and
+        // CharSequences are indexed on first use; a Reader's index is built as it is read.
+        LineIndex lines() 
+        {
+            if (lineIndex == null) lineIndex = (src != null) ? LineIndex.of(src) : LineIndex.of(chars);
+            return lineIndex;
+        }
+
+        ByteBuffer source() { return src; }
+        boolean endedInComment() { return endedInComment; }
+
+        // UTF-8 bytes [start, start+len) of a heap or mapped buffer as a String
+        static String decode(ByteBuffer buf, int start, int len) {
+            if (buf.hasArray()) {
+                return new String(buf.array(), buf.arrayOffset() + start, len, StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[len];
+            buf.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // TOKEN BUFFER
+    // Tokens as parallel int arrays (kind, start offset, length) over the scanned
+    // bytes, so a whole file can be tokenized without one object per token. A kind packs the
+    // TokenType ordinal in the low byte and the keyword id + 1 above it.
+    static final class TokenBuffer 
+    {
+        private static final TokenType[] TYPES = TokenType.values();
+
+        final ByteBuffer source;
+        private int[] types, starts, lengths;
+        private int size;
+        private LineIndex lineIndex;
+
+        TokenBuffer(ByteBuffer source) 
+        {
+            this(source, 256);
+        }
+
+        TokenBuffer(ByteBuffer source, int capacity) 
+        {
+            this.source = source;
+            int cap = Math.max(16, capacity);
+            types = new int[cap];
+            starts = new int[cap];
+            lengths = new int[cap];
+        }
+
+        void add(TokenType type, int keyword, int start, int length) 
+        {
+            if (size == types.length) grow();
+            types[size] = type.ordinal() | ((keyword + 1) << 8);
+            starts[size] = start;
+            lengths[size] = length;
+            size++;
+        }
+
+        private void grow() 
+        {
+            int cap = types.length * 2;
+            types = Arrays.copyOf(types, cap);
+            starts = Arrays.copyOf(starts, cap);
+            lengths = Arrays.copyOf(lengths, cap);
+        }
+
+        // Append tokens [from, to) of another buffer, moving their start offsets by startDelta
+        void append(TokenBuffer other, int from, int to, int startDelta) 
+        {
+            int count = to - from;
+            while (size + count > types.length) grow();
+            System.arraycopy(other.types, from, types, size, count);
+            System.arraycopy(other.starts, from, starts, size, count);
+            System.arraycopy(other.lengths, from, lengths, size, count);
+            int end = size + count;
+            if (startDelta != 0) for (int i = size; i < end; i++) starts[i] += startDelta;
+            size = end;
+        }
+
+        // Index of the first token that ends at or after offset - 1, i.e. the first one whose
+        // lexeme or two-char lookahead could reach offset (binary search; ends are increasing)
+        int firstReaching(int offset) 
+        {
+            int lo = 0, hi = size - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] + lengths[mid] + 1 >= offset) hi = mid; else lo = mid + 1;
+            }
+            return lo;
+        }
+
+        // Index of the token starting exactly at offset at or after index from, or -1
+        int indexAt(int offset, int from) 
+        {
+            int lo = from, hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < offset) lo = mid + 1;
+                else if (starts[mid] > offset) hi = mid - 1;
+                else return mid;
+            }
+            return -1;
+        }
+
+        void clear() { size = 0; }
+        int size() { return size; }
+        TokenType type(int i) { return TYPES[types[i] & 0xFF]; }
+        int keyword(int i) { return (types[i] >> 8) - 1; }
+        int start(int i) { return starts[i]; }
+        int length(int i) { return lengths[i]; }
+
+        // Line starts of the source, built on first use
+        LineIndex lines() 
+        {
+            if (lineIndex == null) lineIndex = LineIndex.of(source);
+            return lineIndex;
+        }
+
+        // Materializes the lexeme; callers should only do this for text they keep
+        String lexeme(int i) 
+        {
+            return ScannerEngine.decode(source, starts[i], lengths[i]);
+        }
+
+        Token token(int i) 
+        {
+            TokenType t = type(i);
+            String lex = (t == TokenType.EOF) ? "" : (t == TokenType.KEYWORD) ? Keywords.name(keyword(i)) : lexeme(i);
+            return new Token(t, lex, starts[i], keyword(i));
+        }
+
+        // Compact binary form: a header, then per token one byte holding its kind (each keyword
+        // is a kind of its own) and the gap since the previous token's end when under 3, a varint
+        // for a larger gap, and a varint length. Typical code takes two bytes a token.
+        private static final int MAGIC = 0x544F4B33; // "TOK3"
+        private static final int KINDS = TYPES.length + Keywords.NAMES.length; // under 64
+
+        // The rules version and every kind's name in order: stored data is only read back by a
+        // scanner with the same rules. Its hash goes in the header, and TokenCache keys on it.
+        static final String RULES = rules();
+        private static final int RULES_HASH = RULES.hashCode();
+
+        private static String rules()
+        {
+            StringBuilder sb = new StringBuilder("rules ").append(ScannerEngine.RULES_VERSION).append(':');
+            for (TokenType t : TYPES) sb.append(' ').append(t.name());
+            for (int k = 0; k < Keywords.NAMES.length; k++) sb.append(' ').append(Keywords.name(k));
+            return sb.toString();
+        }
+
+        void writeTo(OutputStream out) throws IOException
+        {
+            ByteBuffer b = ByteBuffer.allocate(16 + size * 3);
+            b.putInt(MAGIC).putInt(RULES_HASH).putInt(source.limit()).putInt(size);
+            int end = 0;
+            for (int i = 0; i < size; i++) {
+                if (b.remaining() < 11) b = ByteBuffer.allocate(b.capacity() * 2).put(b.flip());
+                int kw = keyword(i);
+                int kind = (kw == Keywords.NONE) ? types[i] & 0xFF : TYPES.length + kw;
+                int gap = starts[i] - end;
+                b.put((byte) (kind | Math.min(gap, 3) << 6));
+                if (gap >= 3) putVarint(b, gap - 3);
+                putVarint(b, lengths[i]);
+                end = starts[i] + lengths[i];
+            }
+            out.write(b.array(), 0, b.position());
+        }
+
+        // Inverse of writeTo for the same source bytes; anything inconsistent is an IOException
+        static TokenBuffer readFrom(ByteBuffer in, ByteBuffer source) throws IOException
+        {
+            try {
+                if (in.getInt() != MAGIC || in.getInt() != RULES_HASH || in.getInt() != source.limit()) {
+                    throw new IOException("token data does not match this scanner or source");
+                }
+                int n = in.getInt();
+                if (n < 1 || n > source.limit() + 1) throw new IOException("bad token count " + n);
+                TokenBuffer t = new TokenBuffer(source, n);
+                int end = 0;
+                for (int i = 0; i < n; i++) {
+                    int head = in.get() & 0xFF;
+                    int kind = head & 0x3F;
+                    int gap = head >>> 6;
+                    if (gap == 3) gap += getVarint(in);
+                    int len = getVarint(in);
+                    long stop = (long) end + gap + len;
+                    if (kind >= KINDS || gap < 0 || len < 0 || stop > source.limit()) throw new IOException("bad token " + i);
+                    t.types[i] = (kind < TYPES.length) ? kind : TokenType.KEYWORD.ordinal() | (kind - TYPES.length + 1) << 8;
+                    t.starts[i] = end + gap;
+                    t.lengths[i] = len;
+                    end = (int) stop;
+                }
+                t.size = n;
+                return t;
+            } catch (BufferUnderflowException e) {
+                throw new IOException("truncated token data");
+            }
+        }
+
+        private static void putVarint(ByteBuffer b, int v)
+        {
+            while ((v & ~0x7F) != 0) {
+                b.put((byte) (v & 0x7F | 0x80));
+                v >>>= 7;
+            }
+            b.put((byte) v);
+        }
+
+        private static int getVarint(ByteBuffer b) throws IOException
+        {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int x = b.get();
+                v |= (x & 0x7F) << shift;
+                if (x >= 0) return v;
+            }
+            throw new IOException("bad varint");
+        }
+    }
+
+    // LINE INDEX
+    // Start offset of every line of one input. Tokens only carry their start offset; when a
+    // position has to be shown (a parse error), its line is found by binary search here and
+    // its column by counting chars from the line start.
+    static final class LineIndex 
+    {
+        private int[] starts = new int[64];
+        private int count;
+        private final ByteBuffer utf8; // offsets are UTF-8 byte offsets into this, or chars if null
+
+        // Empty index for streamed input; add() each line start as it is read
+        LineIndex(int firstLineStart) 
+        {
+            this(null, firstLineStart);
+        }
+
+        private LineIndex(ByteBuffer utf8, int firstLineStart) 
+        {
+            this.utf8 = utf8;
+            starts[count++] = firstLineStart;
+        }
+
+        // Lines of a UTF-8 buffer between its position and limit
+        static LineIndex of(ByteBuffer utf8) 
+        {
+            LineIndex idx = new LineIndex(utf8, utf8.position());
+            for (int p = utf8.position(), end = utf8.limit(); p < end; p++) {
+                if (utf8.get(p) == '\n') idx.add(p + 1);
+            }
+            return idx;
+        }
+
+        static LineIndex of(CharSequence text) 
+        {
+            LineIndex idx = new LineIndex(0);
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') idx.add(i + 1);
+            }
+            return idx;
+        }
+
+        void add(int lineStart) 
+        {
+            if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+            starts[count++] = lineStart;
+        }
+
+        // 1-based line containing offset
+        int line(int offset) 
+        {
+            int lo = 0, hi = count - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (starts[mid] <= offset) lo = mid; else hi = mid - 1;
+            }
+            return lo + 1;
+        }
+
+        // 1-based column of offset, in chars (a multi-byte UTF-8 sequence is one char)
+        int col(int offset) 
+        {
+            int p = starts[line(offset) - 1];
+            if (utf8 == null) return offset - p + 1;
+            int n = 1;
+            while (p < offset) {
+                p += utf8Width(p);
+                n++;
+            }
+            return n;
+        }
+
+        String position(int offset) 
+        {
+            return line(offset) + ":" + col(offset);
+        }
+
+        // Bytes taken by the char at p, by the same rules as ScannerEngine's decoder
+        private int utf8Width(int p) 
+        {
+            int b0 = utf8.get(p) & 0xFF;
+            int n;
+            if ((b0 & 0xE0) == 0xC0) n = 1;
+            else if ((b0 & 0xF0) == 0xE0) n = 2;
+            else if ((b0 & 0xF8) == 0xF0) n = 3;
+            else return 1;
+            int w = 1;
+            while (w <= n && p + w < utf8.limit() && (utf8.get(p + w) & 0xC0) == 0x80) w++;
+            return w;
+        }
+    }
+
+    // TOKEN CACHE
+    // Token streams of scanned files stored on disk in TokenBuffer's binary form, keyed by the
+    // SHA-256 of the scanner's rules (TokenBuffer.RULES) and the file's bytes, so an unchanged
+    // file (typically an included header) is read
+    // back instead of rescanned. Entries are written to a temp file and moved into place; an
+    // entry that cannot be read or written only costs a rescan.
+    static final class TokenCache
+    {
+        private final Path dir;
+        int hits, misses;
+
+        // -Dtokcache.dir=<dir>, else a folder under java.io.tmpdir
+        TokenCache()
+        {
+            this(Paths.get(System.getProperty("tokcache.dir",
+                    Paths.get(System.getProperty("java.io.tmpdir"), "cs410-tokcache").toString())));
+        }
+
+        TokenCache(Path dir)
+        {
+            this.dir = dir;
+        }
+
+        TokenBuffer load(Path file) throws IOException
+        {
+            ByteBuffer source = ByteBuffer.wrap(Files.readAllBytes(file));
+            Path entry = dir.resolve(key(source) + ".tok");
+            if (Files.isRegularFile(entry)) {
+                try {
+                    TokenBuffer tokens = TokenBuffer.readFrom(ByteBuffer.wrap(Files.readAllBytes(entry)), source);
+                    hits++;
+                    return tokens;
+                } catch (IOException stale) {
+                    // fall through and replace it
+                }
+            }
+            misses++;
+            TokenBuffer tokens = new ScannerEngine(source).scanAllBuffered();
+            store(entry, tokens);
+            return tokens;
+        }
+
+        private void store(Path entry, TokenBuffer tokens)
+        {
+            Path tmp = null;
+            try {
+                Files.createDirectories(dir);
+                tmp = Files.createTempFile(dir, "tok", ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    tokens.writeTo(out);
+                }
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                try {
+                    if (tmp != null) Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // nothing else to clean up
+                }
+            }
+        }
+
+        private static String key(ByteBuffer source)
+        {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                md.update(TokenBuffer.RULES.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+                md.update(source.duplicate());
+                return HexFormat.of().formatHex(md.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // every JRE ships SHA-256
+            }
+        }
+    }
+
+    // PARALLEL SCAN
+    // Splits a buffer into chunks that end just after a '\n' and scans them on a ForkJoinPool.
+    // A newline can only be crossed by a block comment (line comments end at it, and char and
+    // string literals and other tokens never contain one), so each chunk is scanned twice
+    // speculatively: starting outside a comment and starting inside one. Stitching walks the
+    // chunks in order, picks the variant matching how the previous chunk ended and drops the
+    // per-chunk EOF tokens. Tokens carry absolute offsets, so nothing needs shifting.
+    static final class ParallelScan 
+    {
+        static final int MIN_CHUNK = 1 << 16;
+
+        static TokenBuffer scan(ByteBuffer src) throws IOException 
+        {
+            return scan(src, ForkJoinPool.commonPool());
+        }
+
+        static TokenBuffer scan(ByteBuffer src, ForkJoinPool pool) throws IOException 
+        {
+            int from = src.position(), to = src.limit();
+            // speculation doubles the work, so it only pays off with more than one worker
+            int chunks = Math.min(pool.getParallelism() * 4, (to - from) / MIN_CHUNK);
+            if (chunks < 2 || pool.getParallelism() < 2) return new ScannerEngine(src).scanAllBuffered();
+
+            int[] bounds = splitPoints(src, from, to, chunks);
+            int n = bounds.length - 1;
+            List<ChunkTask> outside = new ArrayList<>(n), inside = new ArrayList<>(n);
+            List<ChunkTask> all = new ArrayList<>(2 * n);
+            for (int k = 0; k < n; k++) {
+                outside.add(new ChunkTask(src, bounds[k], bounds[k + 1], false));
+                all.add(outside.get(k));
+                if (k > 0) {
+                    inside.add(new ChunkTask(src, bounds[k], bounds[k + 1], true));
+                    all.add(inside.get(k - 1));
+                }
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override protected void compute() { invokeAll(all); }
+            });
+
+            int total = 0;
+            for (ChunkTask t : outside) total += t.tokens == null ? 0 : t.tokens.size();
+            TokenBuffer out = new TokenBuffer(src, total);
+            boolean inComment = false;
+            for (int k = 0; k < n; k++) {
+                ChunkTask t = inComment ? inside.get(k - 1) : outside.get(k);
+                if (t.error != null) throw t.error;
+                boolean last = (k == n - 1);
+                out.append(t.tokens, 0, last ? t.tokens.size() : t.tokens.size() - 1, 0);
+                inComment = t.endedInComment;
+            }
+            return out;
+        }
+
+        // Chunk boundaries: roughly even, each moved forward to just past the next '\n'
+        private static int[] splitPoints(ByteBuffer src, int from, int to, int chunks) 
+        {
+            int[] b = new int[chunks + 1];
+            int n = 0;
+            b[n++] = from;
+            long step = (long) (to - from) / chunks;
+            for (int k = 1; k < chunks; k++) {
+                int p = (int) Math.max(from + step * k, b[n - 1]);
+                while (p < to && src.get(p) != '\n') p++;
+                if (p + 1 >= to) break;
+                if (p + 1 > b[n - 1]) b[n++] = p + 1;
+            }
+            b[n++] = to;
+            return Arrays.copyOf(b, n);
+        }
+
+        private static final class ChunkTask extends RecursiveAction 
+        {
+            private static final long serialVersionUID = 1L;
+
+            final ByteBuffer src;
+            final int from, to;
+            final boolean startInComment;
+            TokenBuffer tokens;
+            boolean endedInComment;
+            IOException error;
+
+            ChunkTask(ByteBuffer src, int from, int to, boolean startInComment) 
+            {
+                this.src = src;
+                this.from = from;
+                this.to = to;
+                this.startInComment = startInComment;
+            }
+
+            @Override protected void compute() 
+            {
+                try {
+                    ScannerEngine eng = new ScannerEngine(src, from, to);
+                    if (startInComment) eng.resumeInBlockComment();
+                    tokens = eng.scanAll(new TokenBuffer(src));
+                    endedInComment = eng.endedInComment();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    // INCREMENTAL SCAN
+    // An edited document and its tokens, kept in step edit by edit. The text is a gap buffer
+    // and so are the tokens: tokens past the gap keep the starts they had and share one offset,
+    // so shifting everything after an edit is a single add. An edit re-lexes a copy of the new
+    // text from the end of the last token that could see it (its text or its lookahead of at
+    // most two chars), and stops as soon as a new token lands on the start of an old token
+    // past the edited range: from there on the input is identical. The copy starts small and
+    // doubles when a token reaches its end (a comment opened by the edit, say). Work per edit
+    // is the re-lexed text plus the distance the gaps move since the last edit.
+    static final class IncrementalScan 
+    {
+        private byte[] text;
+        private int gapStart, gapEnd;  // text gap, in array indexes
+
+        private int[] types, starts, lengths;
+        private int head;              // tokens [0, head) at the front of the arrays
+        private int tail;              // the rest at the back, their starts shift() out of date
+        private int shift;
+
+        // The scanned source of tokens and its tokens (both copied)
+        IncrementalScan(TokenBuffer tokens) 
+        {
+            ByteBuffer src = tokens.source;
+            int len = src.limit();
+            text = new byte[len + 256];
+            src.get(0, text, 0, len);
+            gapStart = len;
+            gapEnd = text.length;
+
+            int cap = tokens.size() + 64;
+            types = new int[cap];
+            starts = new int[cap];
+            lengths = new int[cap];
+            System.arraycopy(tokens.types, 0, types, 0, tokens.size());
+            System.arraycopy(tokens.starts, 0, starts, 0, tokens.size());
+            System.arraycopy(tokens.lengths, 0, lengths, 0, tokens.size());
+            head = tokens.size();
+        }
+
+        int size() { return head + tail; }
+        int textLength() { return text.length - (gapEnd - gapStart); }
+        TokenType type(int i) { return TokenBuffer.TYPES[types[index(i)] & 0xFF]; }
+        int keyword(int i) { return (types[index(i)] >> 8) - 1; }
+        int start(int i) { return i < head ? starts[i] : starts[index(i)] + shift; }
+        int length(int i) { return lengths[index(i)]; }
+
+        private int index(int i) 
+        {
+            return i < head ? i : i + types.length - size();
+        }
+
+        // Replace bytes [offset, offset+removed) of the text by inserted, and re-lex
+        void edit(int offset, int removed, String inserted) throws IOException 
+        {
+            byte[] ins = inserted.getBytes(StandardCharsets.UTF_8);
+            if (offset < 0 || removed < 0 || offset + removed > textLength()) {
+                throw new IndexOutOfBoundsException("edit " + offset + "+" + removed + " of " + textLength());
+            }
+            int delta = ins.length - removed;
+            int editEnd = offset + ins.length;
+
+            int k = firstReaching(offset);
+            int p = (k == 0) ? 0 : start(k - 1) + length(k - 1);
+            moveTokenGap(k);
+            replaceText(offset, removed, ins);
+
+            TokenBuffer found = new TokenBuffer(null, 16);
+            int length = textLength();
+            for (int window = Math.max(256, 2 * (editEnd - p)); ; window *= 2) {
+                int end = (int) Math.min((long) p + window, length);
+                boolean whole = (end == length);
+                byte[] copy = copyText(p, end);
+                ScannerEngine eng = new ScannerEngine(ByteBuffer.wrap(copy));
+                found.clear();
+                while (true) {
+                    eng.scan();
+                    int start = p + eng.tokStart;
+                    int len = eng.tokEnd - eng.tokStart;
+                    if (eng.tokType == TokenType.EOF) {
+                        if (!whole) break;
+                        found.add(TokenType.EOF, eng.tokKeyword, start, 0);
+                        replaceTail(found, size(), delta);
+                        return;
+                    }
+                    if (!whole && start + len + 2 > end) break; // may run on past the copy
+                    if (start >= editEnd) {
+                        int m = tailIndexAt(start - delta);
+                        if (m >= 0 && type(m) == eng.tokType && length(m) == len) {
+                            replaceTail(found, m, delta);
+                            return;
+                        }
+                    }
+                    found.add(eng.tokType, eng.tokKeyword, start, len);
+                }
+            }
+        }
+
+        // The whole document as one source and TokenBuffer, e.g. for the parser
+        TokenBuffer tokens() 
+        {
+            TokenBuffer out = new TokenBuffer(ByteBuffer.wrap(copyText(0, textLength())), size());
+            for (int i = 0; i < size(); i++) {
+                out.add(type(i), keyword(i), start(i), length(i));
+            }
+            return out;
+        }
+
+        // Index of the first token that ends at or after offset - 1 (as TokenBuffer.firstReaching)
+        private int firstReaching(int offset) 
+        {
+            int lo = 0, hi = size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start(mid) + length(mid) + 1 >= offset) hi = mid; else lo = mid + 1;
+            }
+            return lo;
+        }
+
+        // Index of the token past the gap starting exactly at offset, or -1
+        private int tailIndexAt(int offset) 
+        {
+            int lo = head, hi = size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int s = start(mid);
+                if (s < offset) lo = mid + 1;
+                else if (s > offset) hi = mid - 1;
+                else return mid;
+            }
+            return -1;
+        }
+
+        // Tokens [head, m) give way to found, and the ones from m on move by delta
+        private void replaceTail(TokenBuffer found, int m, int delta) 
+        {
+            tail -= m - head;
+            int n = found.size();
+            if (size() + n > types.length) growTokens(size() + n);
+            System.arraycopy(found.types, 0, types, head, n);
+            System.arraycopy(found.starts, 0, starts, head, n);
+            System.arraycopy(found.lengths, 0, lengths, head, n);
+            head += n;
+            shift += delta;
+        }
+
+        private void moveTokenGap(int k) 
+        {
+            int gap = types.length - size();
+            if (k < head) {
+                int n = head - k;
+                System.arraycopy(types, k, types, k + gap, n);
+                System.arraycopy(lengths, k, lengths, k + gap, n);
+                for (int i = head - 1; i >= k; i--) starts[i + gap] = starts[i] - shift; // may overlap
+                head = k;
+                tail += n;
+            } else if (k > head) {
+                int n = k - head;
+                System.arraycopy(types, head + gap, types, head, n);
+                System.arraycopy(lengths, head + gap, lengths, head, n);
+                for (int i = head; i < k; i++) starts[i] = starts[i + gap] + shift;
+                head = k;
+                tail -= n;
+            }
+        }
+
+        private void growTokens(int min) 
+        {
+            int cap = Math.max(min, types.length * 2);
+            int from = types.length - tail;
+            types = grow(types, cap, from);
+            starts = grow(starts, cap, from);
+            lengths = grow(lengths, cap, from);
+        }
+
+        // Same front, the tail from index from moved to the back of a larger array
+        private int[] grow(int[] a, int cap, int from) 
+        {
+            int[] b = Arrays.copyOf(a, cap);
+            System.arraycopy(a, from, b, cap - tail, tail);
+            return b;
+        }
+
+        private void replaceText(int offset, int removed, byte[] ins) 
+        {
+            moveTextGap(offset);
+            gapEnd += removed;
+            if (gapEnd - gapStart < ins.length) {
+                int len = textLength();
+                byte[] b = new byte[Math.max(2 * len, len + ins.length) + 256];
+                System.arraycopy(text, 0, b, 0, gapStart);
+                int after = text.length - gapEnd;
+                System.arraycopy(text, gapEnd, b, b.length - after, after);
+                text = b;
+                gapEnd = b.length - after;
+            }
+            System.arraycopy(ins, 0, text, gapStart, ins.length);
+            gapStart += ins.length;
+        }
+
+        private void moveTextGap(int offset) 
+        {
+            if (offset < gapStart) {
+                int n = gapStart - offset;
+                System.arraycopy(text, offset, text, gapEnd - n, n);
+                gapStart -= n;
+                gapEnd -= n;
+            } else if (offset > gapStart) {
+                int n = offset - gapStart;
+                System.arraycopy(text, gapEnd, text, gapStart, n);
+                gapStart += n;
+                gapEnd += n;
+            }
+        }
+
+        // Text [from, to) in one array
+        private byte[] copyText(int from, int to) 
+        {
+            byte[] out = new byte[to - from];
+            int before = Math.max(0, Math.min(to, gapStart) - from);
+            System.arraycopy(text, from, out, 0, before);
+            int gap = gapEnd - gapStart;
+            System.arraycopy(text, from + before + gap, out, before, out.length - before);
+            return out;
+        }
     }
 
     //  MAIN 
+    // Usage: java Scanner [--parallel] [file]
     public static void main(String[] args) throws Exception {
-        Reader reader;
-        if (args.length > 0) {
-            reader = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8);
+        boolean parallel = false;
+        String path = null;
+        for (String a : args) {
+            if (a.equals("--parallel")) parallel = true;
+            else path = a;
+        }
+        if (parallel && path != null) {
+            TokenBuffer tokens = ParallelScan.scan(ScannerEngine.forFile(Paths.get(path)).source());
+            for (int i = 0; i < tokens.size(); i++) {
+                System.out.println(tokens.token(i).toString());
+            }
+            return;
+        }
+        ScannerEngine engine;
+        if (path != null) {
+            engine = ScannerEngine.forFile(Paths.get(path));
         } else {
-            reader = new InputStreamReader(System.in, StandardCharsets.UTF_8);
+            engine = new ScannerEngine(new InputStreamReader(System.in, StandardCharsets.UTF_8));
         }
-        ScannerEngine engine = new ScannerEngine(reader);
-        List<Token> tokens = engine.scanAll();
-        for (Token t : tokens) {
+        // Print as we scan rather than collecting the whole token list first
+        for (Token t : engine) {
             System.out.println(t.toString());
         }
     }
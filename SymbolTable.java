@@ -0,0 +1,197 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/*
+  CS410 – Shared Symbol Table
+
+  Author(s):
+  Reviewer:
+
+  Interns every identifier, literal and label that flows through the
+  pipeline into a dense int id, once. Later stages (parser atoms, the code
+  generator's memory/register maps and the label table) index arrays by id
+  instead of hashing the name again at every step. Parser temps are not
+  stored at all: temp n has the computed id -1 - n, so the table does not
+  grow with the length of the program.
+*/
+
+public class SymbolTable {
+
+    /** Id used for "no operand" */
+    public static final int NONE = -1;
+
+    // Symbol kinds
+    public static final byte NAME = 0;    // identifier or label
+    public static final byte TEMP = 1;    // parser temporary tN
+    public static final byte NUMBER = 2;  // integer literal: optional sign, then digits
+
+    // Open-addressing hash table of ids (+1, 0 = empty slot)
+    private int[] slots;
+    private int mask;
+
+    // names and kinds are volatile so that another thread handed an id (the pipelined compile's
+    // code generator) reads that symbol correctly even while this table grows for new ones
+    private volatile String[] names;
+    private int[] hashes;
+    private volatile byte[] kinds;
+    private int size;
+
+    /**
+     * Constructor: Initialize an empty table
+     */
+    public SymbolTable() {
+        slots = new int[256];
+        mask = slots.length - 1;
+        names = new String[128];
+        hashes = new int[128];
+        kinds = new byte[128];
+    }
+
+    /**
+     * Intern a name
+     *
+     * @param name The symbol text
+     * @return Its id (the same id every time for equal text)
+     */
+    public int intern(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) h = 31 * h + name.charAt(i);
+        for (int s = h & mask; ; s = (s + 1) & mask) {
+            int id = slots[s] - 1;
+            if (id == NONE) return add(name.toString(), h, s);
+            if (hashes[id] == h && contentEquals(names[id], name)) return id;
+        }
+    }
+
+    /**
+     * Intern the UTF-8 bytes [start, start+len) of a buffer without building a
+     * String unless the symbol is new
+     *
+     * @return The symbol id
+     */
+    public int intern(ByteBuffer utf8, int start, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) {
+            int b = utf8.get(start + i);
+            if (b < 0) return intern(decode(utf8, start, len)); // non-ASCII: hash the chars
+            h = 31 * h + b;
+        }
+        for (int s = h & mask; ; s = (s + 1) & mask) {
+            int id = slots[s] - 1;
+            if (id == NONE) return add(decode(utf8, start, len), h, s);
+            if (hashes[id] == h && bytesEqual(names[id], utf8, start, len)) return id;
+        }
+    }
+
+    /**
+     * Look up a name without adding it
+     *
+     * @return The id, or NONE if the name was never interned
+     */
+    public int lookup(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) h = 31 * h + name.charAt(i);
+        for (int s = h & mask; ; s = (s + 1) & mask) {
+            int id = slots[s] - 1;
+            if (id == NONE) return NONE;
+            if (hashes[id] == h && contentEquals(names[id], name)) return id;
+        }
+    }
+
+    /**
+     * Id of the n-th parser temporary ("t" + n), n >= 1
+     */
+    public int temp(int n) {
+        return NONE - n;
+    }
+
+    /**
+     * @return n for the id of temp n
+     */
+    public static int tempNumber(int id) {
+        return NONE - id;
+    }
+
+    /**
+     * @return The text of a symbol, or null for NONE
+     */
+    public String name(int id) {
+        if (id < NONE) return "t" + tempNumber(id);
+        return id == NONE ? null : names[id];
+    }
+
+    public byte kind(int id) {
+        return id < NONE ? TEMP : kinds[id];
+    }
+
+    public boolean isNumber(int id) {
+        return id >= 0 && kinds[id] == NUMBER;
+    }
+
+    public boolean isTemp(int id) {
+        return id < NONE;
+    }
+
+    /**
+     * @return Number of interned symbols; ids run from 0 to size() - 1 (temps not included)
+     */
+    public int size() {
+        return size;
+    }
+
+    private int add(String name, int h, int slot) {
+        if (size == names.length) {
+            int cap = size * 2;
+            names = Arrays.copyOf(names, cap);
+            hashes = Arrays.copyOf(hashes, cap);
+            kinds = Arrays.copyOf(kinds, cap);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = h;
+        kinds[id] = isNumberText(name) ? NUMBER : NAME;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int s = hashes[id] & mask;
+            while (slots[s] != 0) s = (s + 1) & mask;
+            slots[s] = id + 1;
+        }
+    }
+
+    // Same rule the code generator uses for literal operands
+    private static boolean isNumberText(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (i == 0 && (c == '-' || c == '+')) continue;
+            if (!Character.isDigit(c)) return false;
+        }
+        return !s.isEmpty();
+    }
+
+    private static boolean contentEquals(String a, CharSequence b) {
+        if (a.length() != b.length()) return false;
+        for (int i = 0; i < a.length(); i++) {
+            if (a.charAt(i) != b.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean bytesEqual(String a, ByteBuffer buf, int start, int len) {
+        if (a.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            if (a.charAt(i) != buf.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buf, int start, int len) {
+        return Scanner.ScannerEngine.decode(buf, start, len);
+    }
+}
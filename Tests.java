@@ -0,0 +1,187 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+  CS410 - Checks
+  Small self-checking runs of the compiler phases. Prints one line per check and
+  exits with status 1 if any of them fails.
+
+  Usage: java Tests
+
+*/
+
+public class Tests {
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        textSinkMatchesPrintSink();
+        parserStdoutCharset();
+        foldingStaysEncodable();
+        pipelineOptimizeMatchesSequential();
+        parseProgramCountsDeliveredAtoms();
+        tokenCacheChecksScannerRules();
+
+        System.out.println(failures == 0 ? "all checks passed" : failures + " check(s) FAILED");
+        if (failures > 0) System.exit(1);
+    }
+
+    // TextSink writes the bytes a PrintStream in the same charset would, non-ASCII names included
+    private static void textSinkMatchesPrintSink() throws IOException {
+        String program = "caf\u00e9 = 'x' + 1;\nn\u00e4me = caf\u00e9 * 2;\n\u00fc = n\u00e4me - caf\u00e9;\n";
+        for (Charset cs : List.of(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII)) {
+            SymbolTable symbols = new SymbolTable();
+            List<Parser.Atom> atoms = parse(program, symbols);
+
+            ByteArrayOutputStream printed = new ByteArrayOutputStream();
+            Parser.PrintSink print = new Parser.PrintSink(new PrintStream(printed, true, cs));
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            Parser.TextSink text = new Parser.TextSink(Channels.newChannel(written), symbols, cs);
+            for (Parser.Atom a : atoms) {
+                print.emit(a);
+                text.emit(a);
+            }
+            print.end();
+            text.end();
+            check("TextSink matches PrintSink in " + cs, Arrays.equals(printed.toByteArray(), written.toByteArray()));
+        }
+    }
+
+    // java Parser encodes its stdout the way System.out does, even when that is not the default
+    private static void parserStdoutCharset() throws Exception {
+        Path file = Files.writeString(Files.createTempFile("tests-charset", ".txt"), "caf\u00e9 = 'x';\n",
+                StandardCharsets.UTF_8);
+        try {
+            for (String cs : List.of("ISO-8859-1", "UTF-8")) {
+                byte[] out = run("-Dsun.stdout.encoding=" + cs, "-Dstdout.encoding=" + cs, "Parser", file.toString());
+                byte[] want = ("(MOV, 120, , caf\u00e9)" + System.lineSeparator()).getBytes(cs);
+                check("Parser stdout in " + cs, Arrays.equals(out, want));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // Constants are only folded into literals the code generator can encode, in the parser and
+    // in the Optimizer alike
+    private static void foldingStaysEncodable() throws IOException {
+        check("folds in range", atoms("x = 3 + 4 * 2;", false).equals("(MOV, 11, , x)"));
+        check("folds the largest literal", atoms("x = 1048574 + 1;", false).equals("(MOV, 1048575, , x)"));
+        check("negative left to run time", atoms("x = -5;", false).equals("(NEG, 5, , t1)\n(MOV, t1, , x)"));
+        check("int overflow left to run time",
+                atoms("x = 2147483647 + 1;", false).equals("(ADD, 2147483647, 1, t1)\n(MOV, t1, , x)"));
+        check("too large for the address field left to run time",
+                atoms("x = 2000 * 2000;", false).equals("(MUL, 2000, 2000, t1)\n(MOV, t1, , x)"));
+        check("one past the largest literal left to run time",
+                atoms("x = 1048575 + 1;", false).equals("(ADD, 1048575, 1, t1)\n(MOV, t1, , x)"));
+        check("Optimizer leaves a negative result to run time",
+                atoms("a = 5;\nx = a - 6;", true).equals("(MOV, 5, , a)\n(SUB, 5, 6, x)"));
+    }
+
+    // Compiler --pipeline --optimize on several processors gives the sequential binary. The
+    // Optimizer interns every folded product while the parser interns the new names.
+    private static void pipelineOptimizeMatchesSequential() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            sb.append('a').append(i).append(" = ").append(i).append(";\n");
+            sb.append('b').append(i).append(" = a").append(i).append(" * 7;\n");
+        }
+        Path file = Files.writeString(Files.createTempFile("tests-pipeline", ".txt"), sb);
+        Path seq = Files.createTempFile("tests-pipeline", ".bin");
+        Path par = Files.createTempFile("tests-pipeline", ".bin");
+        try {
+            run("Compiler", "--optimize", "--out=" + seq, file.toString());
+            boolean same = true;
+            for (int i = 0; i < 3 && same; i++) {
+                run("-XX:ActiveProcessorCount=4", "Compiler", "--pipeline", "--optimize", "--out=" + par, file.toString());
+                same = Files.size(seq) > 0 && Arrays.equals(Files.readAllBytes(seq), Files.readAllBytes(par));
+            }
+            check("Compiler --pipeline --optimize on 4 processors matches sequential", same);
+        } finally {
+            Files.delete(file);
+            Files.delete(seq);
+            Files.delete(par);
+        }
+    }
+
+    // parseProgram returns how many atoms its sink got, a loop's held condition and update included
+    private static void parseProgramCountsDeliveredAtoms() throws IOException {
+        String program = "for (i = 0; i < n; i = i + 1) {\n  while (x < i * 2) {\n    x = x + 1;\n  }\n}\n";
+        Parser.ListSink list = new Parser.ListSink();
+        Scanner.ScannerEngine eng = new Scanner.ScannerEngine(program.getBytes(StandardCharsets.UTF_8));
+        int count = new Parser.RDParser(new Parser.TokenBufferSource(eng, new SymbolTable())).parseProgram(list);
+        check("parseProgram counts each loop atom once", count == list.atoms.size());
+    }
+
+    // A cached token stream is read back only by a scanner with the same rules; one stored under
+    // other rules is rescanned and replaced
+    private static void tokenCacheChecksScannerRules() throws IOException {
+        Path dir = Files.createTempDirectory("tests-tokcache");
+        Path file = Files.writeString(dir.resolve("in.txt"), "x = 5. + y;\n");
+        try {
+            Scanner.TokenCache cache = new Scanner.TokenCache(dir);
+            int want = cache.load(file).size();
+            cache.load(file);
+            check("token cache serves an unchanged file", cache.hits == 1 && cache.misses == 1);
+
+            Path entry;
+            try (var entries = Files.list(dir)) {
+                entry = entries.filter(p -> p.toString().endsWith(".tok")).findFirst().orElseThrow();
+            }
+            byte[] data = Files.readAllBytes(entry);
+            data[4] ^= 1; // the rules hash
+            Files.write(entry, data);
+            int got = cache.load(file).size();
+            check("token cache rescans an entry from other rules", cache.hits == 1 && cache.misses == 2 && got == want);
+        } finally {
+            try (var entries = Files.list(dir)) {
+                for (Path p : entries.toList()) Files.delete(p);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // The atoms of program, one per line
+    private static String atoms(String program, boolean optimize) throws IOException {
+        SymbolTable symbols = new SymbolTable();
+        Parser.ListSink list = new Parser.ListSink();
+        Scanner.ScannerEngine eng = new Scanner.ScannerEngine(program.getBytes(StandardCharsets.UTF_8));
+        new Parser.RDParser(new Parser.TokenBufferSource(eng, symbols))
+                .parseProgram(optimize ? new Optimizer(symbols, list) : list);
+        StringBuilder sb = new StringBuilder();
+        for (Parser.Atom a : list.atoms) sb.append(sb.length() == 0 ? "" : "\n").append(a);
+        return sb.toString();
+    }
+
+    private static List<Parser.Atom> parse(String program, SymbolTable symbols) throws IOException {
+        Parser.ListSink list = new Parser.ListSink();
+        Scanner.ScannerEngine eng = new Scanner.ScannerEngine(program.getBytes(StandardCharsets.UTF_8));
+        new Parser.RDParser(new Parser.TokenBufferSource(eng, symbols)).parseProgram(list);
+        return list.atoms;
+    }
+
+    // Stdout of a main class run in a fresh JVM on this class path
+    private static byte[] run(String... args) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path")));
+        cmd.addAll(List.of(args));
+        Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        byte[] out = p.getInputStream().readAllBytes();
+        p.waitFor();
+        return out;
+    }
+
+    private static void check(String name, boolean ok) {
+        System.out.println((ok ? "ok    " : "FAIL  ") + name);
+        if (!ok) failures++;
+    }
+}